@@ -0,0 +1,26 @@
+package io.github.dankoller.antifraud.benchmark;
+
+import io.github.dankoller.antifraud.util.CardValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Luhn validation of card numbers, which runs for every transaction and every stolen-card request.
+ */
+@State(Scope.Thread)
+public class CardValidatorBenchmark {
+
+    private final String validNumber = "4000008449430003";
+    private final String invalidNumber = "1234567891011121";
+
+    @Benchmark
+    public boolean validNumber() {
+        return CardValidator.isNonValid(validNumber);
+    }
+
+    @Benchmark
+    public boolean invalidNumber() {
+        return CardValidator.isNonValid(invalidNumber);
+    }
+}
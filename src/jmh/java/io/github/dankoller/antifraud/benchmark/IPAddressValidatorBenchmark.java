@@ -0,0 +1,41 @@
+package io.github.dankoller.antifraud.benchmark;
+
+import io.github.dankoller.antifraud.util.IPAddressValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.regex.Pattern;
+
+/**
+ * IPv4 validation, which runs for every transaction and every suspicious-IP request. The regex benchmarks show the
+ * previous implementation, which compiled the pattern on every call, as a baseline.
+ */
+@State(Scope.Thread)
+public class IPAddressValidatorBenchmark {
+
+    private static final String IPV4 = "^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$";
+
+    private final String validIp = "192.168.100.254";
+    private final String invalidIp = "192.168.100.256";
+
+    @Benchmark
+    public boolean validIp() {
+        return IPAddressValidator.isNonValidIp(validIp);
+    }
+
+    @Benchmark
+    public boolean invalidIp() {
+        return IPAddressValidator.isNonValidIp(invalidIp);
+    }
+
+    @Benchmark
+    public boolean validIpRegex() {
+        return !Pattern.compile(IPV4).matcher(validIp).matches();
+    }
+
+    @Benchmark
+    public boolean invalidIpRegex() {
+        return !Pattern.compile(IPV4).matcher(invalidIp).matches();
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.dankoller.antifraud.benchmark;
+
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.IPAddress;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.persistence.SuspiciousIPRepository;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory stand-ins for the repositories used on the scoring path, so benchmarks measure the application code
+ * instead of a database. Only the query methods the heuristics call are implemented.
+ */
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    static CardRepository cards(Map<Long, Card> cards) {
+        return proxy(CardRepository.class, (method, args) -> {
+            switch (method) {
+                case "findByNumberKey":
+                    return Optional.ofNullable(cards.get((Long) args[0]));
+                case "findAllByNumberKeyIn":
+                    return ((Collection<?>) args[0]).stream()
+                            .map(cards::get)
+                            .filter(card -> card != null)
+                            .collect(Collectors.toList());
+                case "findAllByIsLockedTrue":
+                    return cards.values().stream().filter(Card::isLocked).collect(Collectors.toList());
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    static SuspiciousIPRepository suspiciousIPs(List<IPAddress> ipAddresses) {
+        return proxy(SuspiciousIPRepository.class, (method, args) -> {
+            if (method.equals("findAll")) return ipAddresses;
+            throw new UnsupportedOperationException(method);
+        });
+    }
+
+    static TransactionRepository transactions(List<Transaction> history) {
+        return proxy(TransactionRepository.class, (method, args) -> {
+            switch (method) {
+                case "findAllByNumberKeyAndDateGreaterThanEqual":
+                    return history.stream()
+                            .filter(transaction -> transaction.getNumberKey().equals(args[0]))
+                            .filter(transaction -> !transaction.getDate().isBefore((LocalDateTime) args[1]))
+                            .collect(Collectors.toList());
+                case "findAllByDateBetweenAndNumberKey":
+                    return history.stream()
+                            .filter(transaction -> transaction.getNumberKey().equals(args[2]))
+                            .filter(transaction -> !transaction.getDate().isBefore((LocalDateTime) args[0]))
+                            .filter(transaction -> !transaction.getDate().isAfter((LocalDateTime) args[1]))
+                            .collect(Collectors.toList());
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    /**
+     * Sets an autowired field, the benchmarks run without an application context.
+     */
+    static void inject(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + " stand-in";
+                }
+            }
+            return handler.handle(method.getName(), args);
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.dankoller.antifraud.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+
+/**
+ * Jackson (de)serialization of a transaction as done for POST /api/antifraud/transaction and the history endpoints.
+ * The mapper is configured like the one Spring Boot creates, without INDENT_OUTPUT.
+ */
+@State(Scope.Benchmark)
+public class TransactionJsonBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final String requestBody = "{\"amount\":800,\"ip\":\"192.168.1.1\",\"number\":\"4000008449430003\","
+            + "\"region\":\"ECA\",\"date\":\"2022-10-13T14:34:41\"}";
+
+    private Transaction transaction;
+
+    @Setup
+    public void setUp() {
+        transaction = new Transaction();
+        transaction.setId(42L);
+        transaction.setAmount(800L);
+        transaction.setIp("192.168.1.1");
+        transaction.setNumber("4000008449430003");
+        transaction.setRegion(Region.ECA);
+        transaction.setDate(LocalDateTime.of(2022, 10, 13, 14, 34, 41));
+        transaction.setResult(TransactionResult.MANUAL_PROCESSING);
+    }
+
+    @Benchmark
+    public Transaction deserialize() throws JsonProcessingException {
+        return objectMapper.readValue(requestBody, Transaction.class);
+    }
+
+    @Benchmark
+    public String serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(transaction);
+    }
+}
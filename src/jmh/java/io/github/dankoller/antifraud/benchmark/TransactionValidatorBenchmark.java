@@ -0,0 +1,148 @@
+package io.github.dankoller.antifraud.benchmark;
+
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.IPAddress;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import io.github.dankoller.antifraud.util.CardValidator;
+import io.github.dankoller.antifraud.util.TransactionValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Scores transactions the way POST /api/antifraud/transaction does, with the repositories replaced by in-memory
+ * stand-ins. Every invocation scores a new transaction a few seconds after the previous one and records it in the
+ * card windows, so the caches stay in the steady state of a running application instead of being warmed once.
+ */
+@State(Scope.Thread)
+public class TransactionValidatorBenchmark {
+
+    private static final int TEMPLATES = 4096;
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 0, 0);
+
+    @Param({"1000", "100000"})
+    private int cards;
+
+    private TransactionValidator validator;
+    private CardWindowStore cardWindowStore;
+
+    private final String[] numbers = new String[TEMPLATES];
+    private final String[] ips = new String[TEMPLATES];
+    private final Region[] regions = new Region[TEMPLATES];
+    private final long[] amounts = new long[TEMPLATES];
+
+    private int next;
+    private LocalDateTime date;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Map<Long, Card> cardsByNumber = new HashMap<>();
+        List<String> cardNumbers = new ArrayList<>();
+
+        for (int i = 0; i < cards; i++) {
+            String number = withCheckDigit(String.format("400000%09d", i));
+            // Every hundredth card is stolen
+            Card card = new Card(number, i % 100 == 0);
+            card.setAllowedLimit(200 + random.nextInt(800));
+            card.setManualLimit(card.getAllowedLimit() + random.nextInt(2000));
+            cardsByNumber.put(card.getNumberKey(), card);
+            cardNumbers.add(number);
+        }
+
+        List<IPAddress> suspiciousIPs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            suspiciousIPs.add(new IPAddress("10.1." + (i / 250) + "." + (i % 250 + 1)));
+        }
+        suspiciousIPs.add(new IPAddress("10.2.0.0/16"));
+
+        CardRepository cardRepository = InMemoryRepositories.cards(cardsByNumber);
+        TransactionRepository transactionRepository = InMemoryRepositories.transactions(new ArrayList<>());
+
+        StolenCardIndex stolenCardIndex = new StolenCardIndex();
+        InMemoryRepositories.inject(stolenCardIndex, "cardRepository", cardRepository);
+        stolenCardIndex.load();
+
+        SuspiciousIPIndex suspiciousIPIndex = new SuspiciousIPIndex();
+        InMemoryRepositories.inject(suspiciousIPIndex, "suspiciousIPRepository",
+                InMemoryRepositories.suspiciousIPs(suspiciousIPs));
+        suspiciousIPIndex.load();
+
+        cardWindowStore = new CardWindowStore();
+        InMemoryRepositories.inject(cardWindowStore, "transactionRepository", transactionRepository);
+        InMemoryRepositories.inject(cardWindowStore, "transactionWriter", new TransactionWriter());
+        InMemoryRepositories.inject(cardWindowStore, "maxCards", 100_000);
+
+        CardStateCache cardStateCache = new CardStateCache();
+        InMemoryRepositories.inject(cardStateCache, "cardRepository", cardRepository);
+        InMemoryRepositories.inject(cardStateCache, "meterRegistry", new SimpleMeterRegistry());
+        InMemoryRepositories.inject(cardStateCache, "maxSize", 100_000);
+        InMemoryRepositories.inject(cardStateCache, "ttlSeconds", 600L);
+        cardStateCache.init();
+
+        validator = new TransactionValidator();
+        InMemoryRepositories.inject(validator, "cardStateCache", cardStateCache);
+        InMemoryRepositories.inject(validator, "cardWindowStore", cardWindowStore);
+        InMemoryRepositories.inject(validator, "stolenCardIndex", stolenCardIndex);
+        InMemoryRepositories.inject(validator, "suspiciousIPIndex", suspiciousIPIndex);
+        InMemoryRepositories.inject(validator, "velocityStore", new VelocityStore(100_000));
+        InMemoryRepositories.inject(validator, "meterRegistry", new SimpleMeterRegistry());
+        InMemoryRepositories.inject(validator, "shortCircuit", true);
+        validator.init();
+
+        // A few IP addresses and regions per card, so the correlation heuristics fire now and then
+        for (int i = 0; i < TEMPLATES; i++) {
+            numbers[i] = cardNumbers.get(random.nextInt(cards));
+            ips[i] = random.nextInt(50) == 0
+                    ? "10.1.0." + (1 + random.nextInt(250))
+                    : "192.168." + random.nextInt(2) + "." + (1 + random.nextInt(4));
+            regions[i] = Region.values()[random.nextInt(3)];
+            amounts[i] = 1L + random.nextInt(3000);
+        }
+        date = START;
+    }
+
+    @Benchmark
+    public String verifyTransaction() {
+        int index = next++ & (TEMPLATES - 1);
+        date = date.plusSeconds(3);
+
+        Transaction transaction = new Transaction();
+        transaction.setNumber(numbers[index]);
+        transaction.setIp(ips[index]);
+        transaction.setRegion(regions[index]);
+        transaction.setAmount(amounts[index]);
+        transaction.setDate(date);
+
+        validator.verifyTransaction(transaction);
+        cardWindowStore.record(transaction);
+        return transaction.getResult();
+    }
+
+    // Appends the Luhn check digit, so the generated card numbers are valid
+    private static String withCheckDigit(String prefix) {
+        for (int digit = 0; digit <= 9; digit++) {
+            if (!CardValidator.isNonValid(prefix + digit)) return prefix + digit;
+        }
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,62 @@
+-- Query plans of the lookups the application runs on every request, on tables with a few million rows.
+--
+-- Run it against a scratch database that the application has been started against once (so the migrations ran):
+--   mysql -u root antifraud_bench < src/jmh/resources/sql/lookup-plans.sql
+-- To see the plans without the lookup indexes, migrate the scratch database to version 2 only
+-- (spring.flyway.target=2) before running the script. Without the indexes every lookup is a full table scan
+-- (type ALL in EXPLAIN, "Table scan" in EXPLAIN ANALYZE); with them it is an index lookup.
+
+SET SESSION cte_max_recursion_depth = 5000000;
+
+-- 1M cards, every hundredth one locked
+INSERT INTO card (id, allowed_limit, is_locked, manual_limit, number, number_key)
+WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 1000000)
+SELECT 1000000000000 + n, 200, n % 100 = 0, 1500, CONCAT('4', LPAD(n, 15, '0')), 4000000000000000 + n
+FROM seq;
+
+-- 3M transactions spread over the cards, one per minute
+INSERT INTO transaction (id, amount, date, feedback, ip, number, number_key, region, result)
+WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 3000000)
+SELECT 1000000000000 + n,
+       n % 3000,
+       TIMESTAMP('2022-01-01 00:00:00') + INTERVAL n MINUTE,
+       NULL,
+       CONCAT('192.168.', n % 4, '.', n % 250 + 1),
+       CONCAT('4', LPAD(n % 1000000 + 1, 15, '0')),
+       4000000000000000 + n % 1000000 + 1,
+       ELT(n % 7 + 1, 'EAP', 'ECA', 'HIC', 'LAC', 'MENA', 'SA', 'SSA'),
+       'ALLOWED'
+FROM seq;
+
+-- 200k suspicious IP addresses
+INSERT INTO ipaddress (id, ip)
+WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 200000)
+SELECT 1000000000000 + n, CONCAT('10.', n DIV 65536 % 256, '.', n DIV 256 % 256, '.', n % 256)
+FROM seq;
+
+-- 200k users
+INSERT INTO `user` (is_account_non_locked, name, password, role, username)
+WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 200000)
+SELECT TRUE, CONCAT('User ', n), 'not a hash', 'ROLE_MERCHANT', CONCAT('bench_user_', n)
+FROM seq;
+
+ANALYZE TABLE card, transaction, ipaddress, `user`;
+
+-- CardRepository.findByNumber / findByNumberKey
+EXPLAIN ANALYZE SELECT * FROM card WHERE number = '4000000000500000';
+EXPLAIN ANALYZE SELECT * FROM card WHERE number_key = 4000000000500000;
+
+-- SuspiciousIPRepository.findByIp
+EXPLAIN ANALYZE SELECT * FROM ipaddress WHERE ip = '10.1.134.160';
+
+-- UserRepository.findByUsername
+EXPLAIN ANALYZE SELECT * FROM `user` WHERE username = 'bench_user_100000';
+
+-- Correlation window of a card (findAllByDateBetweenAndNumber and its numeric variant)
+EXPLAIN ANALYZE SELECT * FROM transaction
+WHERE date BETWEEN '2022-06-01 00:00:00' AND '2022-06-01 01:00:00' AND number = '4000000000500000';
+EXPLAIN ANALYZE SELECT * FROM transaction
+WHERE number_key = 4000000000500000 AND date >= '2022-06-01 00:00:00';
+
+-- History of a card
+EXPLAIN ANALYZE SELECT * FROM transaction WHERE number_key = 4000000000500000;
@@ -0,0 +1,68 @@
+package io.github.dankoller.antifraud.auth;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.AuthenticationEntryPoint;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Authenticates requests that carry an "Authorization: Bearer" header with a token issued by the {@link TokenService}.
+ * Requests without a bearer token are passed on unchanged, so HTTP Basic keeps working.
+ */
+public class BearerTokenFilter extends OncePerRequestFilter {
+
+    private static final String PREFIX = "Bearer ";
+
+    private final TokenService tokenService;
+    private final AuthenticationEntryPoint authenticationEntryPoint;
+
+    public BearerTokenFilter(TokenService tokenService, AuthenticationEntryPoint authenticationEntryPoint) {
+        this.tokenService = tokenService;
+        this.authenticationEntryPoint = authenticationEntryPoint;
+    }
+
+    /**
+     * Verifies the bearer token of the request and stores the user of the token in the security context.
+     *
+     * @param request     The incoming request
+     * @param response    The response to the request
+     * @param filterChain The remaining filters
+     * @throws IOException      if an input or output exception occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws IOException, ServletException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, PREFIX, 0, PREFIX.length())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        TokenService.Claims claims = tokenService.verify(header.substring(PREFIX.length()).trim());
+        if (claims == null) {
+            SecurityContextHolder.clearContext();
+            authenticationEntryPoint.commence(request, response,
+                    new BadCredentialsException("Invalid or expired token"));
+            return;
+        }
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                claims.getUsername(),
+                null,
+                List.of(new SimpleGrantedAuthority(claims.getRole()))
+        ));
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.dankoller.antifraud.auth;
+
+import io.github.dankoller.antifraud.cache.CredentialCache;
+import io.github.dankoller.antifraud.entity.user.UserDetailsServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Authenticates username and password requests (e.g. HTTP Basic) against the {@link CredentialCache} first and only
+ * falls back to the database and the BCrypt match if the credentials weren't verified recently.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    private DaoAuthenticationProvider delegate;
+
+    @PostConstruct
+    public void init() {
+        delegate = new DaoAuthenticationProvider();
+        delegate.setUserDetailsService(userDetailsService);
+        delegate.setPasswordEncoder(passwordEncoder);
+    }
+
+    /**
+     * Authenticates the given request, using the cached user if the same credentials were verified before.
+     *
+     * @param authentication The authentication request
+     * @return A fully authenticated object including the authorities of the user
+     */
+    @Override
+    public Authentication authenticate(Authentication authentication) {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        if (credentials == null) return delegate.authenticate(authentication);
+
+        String password = credentials.toString();
+        UserDetails user = credentialCache.get(username, password);
+        if (user != null) {
+            return new UsernamePasswordAuthenticationToken(user, password, user.getAuthorities());
+        }
+
+        // Read the generation first, so a user that is changed while being verified isn't cached
+        long generation = credentialCache.generation();
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.getPrincipal() instanceof UserDetails) {
+            credentialCache.put((UserDetails) result.getPrincipal(), password, generation);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+}
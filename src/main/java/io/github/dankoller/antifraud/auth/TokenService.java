@@ -0,0 +1,159 @@
+package io.github.dankoller.antifraud.auth;
+
+import io.github.dankoller.antifraud.entity.user.User;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies short-lived signed API tokens, so clients can authenticate with "Authorization: Bearer" instead
+ * of sending their password with every request. A token has the form
+ * {@code username.role.issuedAt.expiresAt.signature}, where the username and the signature (HMAC-SHA256 over the other
+ * parts) are Base64url encoded. Tokens are verified locally without loading the user. They are revoked through a small
+ * in-memory deny list, which rejects all tokens a user was issued before the last change of the user. The deny list
+ * isn't shared between nodes, other nodes accept revoked tokens until they expire.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Service
+@SuppressWarnings("unused")
+public class TokenService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    // Base64 encoded signing key, a random key is used if empty (tokens are only valid on this node until a restart)
+    @Value("${antifraud.token.secret:}")
+    private String secret;
+
+    @Value("${antifraud.token.ttl-seconds:900}")
+    private long ttlSeconds;
+
+    // Deny list: username -> time of the last revocation (epoch millis)
+    private final Map<String, Long> revocations = new ConcurrentHashMap<>();
+
+    private SecretKeySpec key;
+
+    // Mac instances aren't thread-safe, every thread keeps its own
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    @PostConstruct
+    public void init() {
+        byte[] bytes;
+        if (secret == null || secret.isBlank()) {
+            bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+        } else {
+            bytes = Base64.getDecoder().decode(secret);
+        }
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    /**
+     * Issues a new token for the given user.
+     *
+     * @param user The user that just logged in
+     * @return The signed token
+     */
+    public Token issue(User user) {
+        long issuedAt = System.currentTimeMillis();
+        long expiresAt = issuedAt + ttlSeconds * 1000;
+        String payload = ENCODER.encodeToString(user.getUsername().getBytes(StandardCharsets.UTF_8))
+                + "." + user.getRole()
+                + "." + issuedAt
+                + "." + expiresAt;
+
+        return new Token(payload + "." + ENCODER.encodeToString(sign(payload)), expiresAt);
+    }
+
+    /**
+     * Verifies the signature, expiry and revocation status of a token.
+     *
+     * @param token The presented token
+     * @return The username and role of the token or null if the token isn't valid
+     */
+    public Claims verify(String token) {
+        int signatureStart = token.lastIndexOf('.');
+        if (signatureStart < 0) return null;
+
+        String payload = token.substring(0, signatureStart);
+        byte[] signature;
+        try {
+            signature = DECODER.decode(token.substring(signatureStart + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, sign(payload))) return null;
+
+        // The payload was signed by this service, so it always consists of four parts
+        String[] parts = payload.split("\\.");
+        long issuedAt = Long.parseLong(parts[2]);
+        long expiresAt = Long.parseLong(parts[3]);
+        if (expiresAt <= System.currentTimeMillis()) return null;
+
+        String username = new String(DECODER.decode(parts[0]), StandardCharsets.UTF_8);
+        Long revokedAt = revocations.get(username);
+        if (revokedAt != null && issuedAt <= revokedAt) return null;
+
+        return new Claims(username, parts[1]);
+    }
+
+    /**
+     * Rejects all tokens that were issued to the user so far, e.g. after the user was locked or the role changed.
+     * Revocations older than the lifetime of a token are dropped, since all tokens they cover have expired.
+     *
+     * @param username The username of the changed or deleted user
+     */
+    public void revoke(String username) {
+        long now = System.currentTimeMillis();
+        revocations.put(username, now);
+        revocations.values().removeIf(revokedAt -> revokedAt < now - ttlSeconds * 1000);
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A signed token and the time it expires (epoch millis).
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    public static final class Token {
+        private final String value;
+        private final long expiresAt;
+    }
+
+    /**
+     * The username and role stored in a valid token.
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    public static final class Claims {
+        private final String username;
+        private final String role;
+    }
+}
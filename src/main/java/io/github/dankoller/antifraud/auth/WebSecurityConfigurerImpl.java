@@ -1,14 +1,15 @@
 package io.github.dankoller.antifraud.auth;
 
-import io.github.dankoller.antifraud.entity.user.UserDetailsServiceImpl;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -24,23 +25,32 @@ import static org.springframework.security.config.Customizer.withDefaults;
 public class WebSecurityConfigurerImpl extends WebSecurityConfigurerAdapter {
 
     private final RestAuthenticationEntryPoint restAuthenticationEntryPoint;
-    private final UserDetailsServiceImpl userDetailsService;
+    private final CachingAuthenticationProvider cachingAuthenticationProvider;
+    private final TokenService tokenService;
 
-    public WebSecurityConfigurerImpl(RestAuthenticationEntryPoint restAuthenticationEntryPoint, UserDetailsServiceImpl userDetailsService) {
+    public WebSecurityConfigurerImpl(RestAuthenticationEntryPoint restAuthenticationEntryPoint,
+                                     CachingAuthenticationProvider cachingAuthenticationProvider,
+                                     TokenService tokenService) {
         this.restAuthenticationEntryPoint = restAuthenticationEntryPoint;
-        this.userDetailsService = userDetailsService;
+        this.cachingAuthenticationProvider = cachingAuthenticationProvider;
+        this.tokenService = tokenService;
     }
 
+    /**
+     * Users are loaded by the {@link CachingAuthenticationProvider}, which skips the database and the BCrypt match for
+     * credentials that were verified recently.
+     *
+     * @param auth the {@link AuthenticationManagerBuilder} to use
+     */
     @Override
-    protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth
-                .userDetailsService(userDetailsService)
-                .passwordEncoder(getEncoder());
+    protected void configure(AuthenticationManagerBuilder auth) {
+        auth.authenticationProvider(cachingAuthenticationProvider);
     }
 
     /**
      * This method is used to configure the security of the web application by restricting access based on the
-     * HttpServletRequest.
+     * HttpServletRequest. Clients authenticate with HTTP Basic or a bearer token on every request, so no sessions are
+     * created; a session would keep a locked user authenticated.
      *
      * @param http the {@link HttpSecurity} to modify
      * @throws Exception if an error occurs
@@ -52,6 +62,10 @@ public class WebSecurityConfigurerImpl extends WebSecurityConfigurerAdapter {
                 .httpBasic()
                 .authenticationEntryPoint(restAuthenticationEntryPoint) // handles 401 auth error
                 .and()
+                .addFilterBefore(new BearerTokenFilter(tokenService, restAuthenticationEntryPoint),
+                        BasicAuthenticationFilter.class)
+                .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                .and()
                 .csrf().disable().headers().frameOptions().disable() // for Postman, H2 console
                 .and()
                 .authorizeRequests()
@@ -59,6 +73,7 @@ public class WebSecurityConfigurerImpl extends WebSecurityConfigurerAdapter {
                 .mvcMatchers("/api/auth/login").permitAll()
                 .mvcMatchers("/api/auth/user", "/actuator/shutdown").permitAll()
                 .mvcMatchers(HttpMethod.POST, "/api/antifraud/transaction").hasRole("MERCHANT")
+                .mvcMatchers(HttpMethod.POST, "/api/antifraud/transactions").hasRole("MERCHANT")
                 .mvcMatchers("/api/auth/list").hasAnyRole("SUPPORT", "ADMINISTRATOR")
                 .mvcMatchers("/api/auth/**").hasRole("ADMINISTRATOR")
                 .mvcMatchers("/api/antifraud/**").hasRole("SUPPORT");
@@ -0,0 +1,25 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Card;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable copy of the limits and lock status of a card, as held by the {@link CardStateCache}. The version of the
+ * card tells which of two copies is newer.
+ */
+@AllArgsConstructor
+@Getter
+public final class CardState {
+
+    private final int allowedLimit;
+    private final int manualLimit;
+    private final boolean locked;
+    // Version of the card when it was read, -1 for a card that was never saved
+    private final long version;
+
+    public static CardState of(Card card) {
+        return new CardState(card.getAllowedLimit(), card.getManualLimit(), card.isLocked(),
+                card.getVersion() == null ? -1 : card.getVersion());
+    }
+}
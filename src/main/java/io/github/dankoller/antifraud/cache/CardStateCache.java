@@ -0,0 +1,190 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of card limits and lock status by numeric card key. Entries are evicted in least-recently-used order
+ * once a segment is full and expire after a fixed time, so changes made directly in the database are picked up
+ * eventually. Changes made through the application are written through right after they are saved. An entry is never
+ * replaced by an older version of the card, so a miss that read the card before a concurrent change can't overwrite
+ * the new limits. Hits, misses and evictions are published as metrics.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class CardStateCache {
+
+    // Every segment has its own lock, so lookups of different cards rarely contend
+    private static final int SEGMENTS = 16;
+
+    @Value("${antifraud.card-cache.max-size:100000}")
+    private int maxSize;
+
+    @Value("${antifraud.card-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxSize / SEGMENTS));
+        }
+
+        FunctionCounter.builder("antifraud.card_cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("antifraud.card_cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("antifraud.card_cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("antifraud.card_cache.size", this, CardStateCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the state of a card, loading it from the database if it isn't cached.
+     *
+     * @param key The numeric card key
+     * @return The state of the card or null if the card doesn't exist
+     */
+    public CardState get(long key) {
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.increment();
+                return entry.state;
+            }
+        }
+
+        misses.increment();
+        Card card = cardRepository.findByNumberKey(key).orElse(null);
+        if (card == null) return null;
+
+        // A change committed since the card was read has already put a newer version, which wins
+        return put(key, CardState.of(card));
+    }
+
+    /**
+     * Checks if a card is cached without loading it or touching the statistics.
+     *
+     * @param key The numeric card key
+     * @return True if a valid entry is cached, false otherwise
+     */
+    public boolean contains(long key) {
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            return entry != null && entry.expiresAt - now > 0;
+        }
+    }
+
+    /**
+     * Writes the state of a card that was just saved into the cache, unless a newer version is cached already.
+     *
+     * @param card The saved card
+     */
+    public void put(Card card) {
+        put(card.getNumberKey(), CardState.of(card));
+    }
+
+    /**
+     * Removes a card that was deleted from the database.
+     *
+     * @param key The numeric card key
+     */
+    public void remove(long key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Helper method that caches the state of a card unless a newer version is cached. An expired entry is replaced in
+     * any case, the database is the only source after that.
+     *
+     * @return The cached state, which is the newer one of both
+     */
+    private CardState put(long key, CardState state) {
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null && entry.expiresAt - now > 0 && entry.state.getVersion() > state.getVersion()) {
+                return entry.state;
+            }
+            segment.put(key, new Entry(state, now + ttlSeconds * 1_000_000_000L));
+            return state;
+        }
+    }
+
+    private Segment segmentFor(long key) {
+        // Card numbers share prefixes, mix all bits before picking a segment
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    private static final class Entry {
+        private final CardState state;
+        private final long expiresAt;
+
+        private Entry(CardState state, long expiresAt) {
+            this.state = state;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Access-ordered map that drops its least recently used entry once it is full
+    private final class Segment extends LinkedHashMap<Long, Entry> {
+        // Never serialized, declared because LinkedHashMap is Serializable
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Region;
+
+/**
+ * Recent transactions of a single card kept in a ring buffer sorted by time. Every entry consists of the timestamp
+ * (epoch seconds), the region ordinal and the packed IP address. Distinct regions and IP addresses are counted
+ * incrementally while entries enter and leave the buffer. Access is guarded by the owning {@link CardWindowStore}.
+ */
+class CardWindow {
+
+    // Transactions without region are counted as a region of their own, like the history query does
+    static final int NO_REGION = Region.values().length;
+
+    private final long windowSeconds;
+
+    private long[] timestamps = new long[8];
+    private byte[] regions = new byte[8];
+    private int[] ips = new int[8];
+    private int head;
+    private int size;
+
+    private final int[] regionCounts = new int[NO_REGION + 1];
+    private int distinctRegions;
+    private final IntCountMap ipCounts = new IntCountMap();
+
+    private volatile long newest = Long.MIN_VALUE;
+    private long evictedUpTo;
+
+    /**
+     * Creates an empty window that holds all transactions of the card from the given time on.
+     *
+     * @param windowSeconds Length of the correlation window in seconds
+     * @param coveredFrom   Time (epoch seconds) from which on the window is complete
+     */
+    CardWindow(long windowSeconds, long coveredFrom) {
+        this.windowSeconds = windowSeconds;
+        this.evictedUpTo = coveredFrom - 1;
+    }
+
+    /**
+     * Checks if the window still holds every transaction from the given time on.
+     *
+     * @param from Start of the requested period (epoch seconds)
+     * @return True if no transaction at or after that time was evicted, false otherwise
+     */
+    boolean covers(long from) {
+        return evictedUpTo < from;
+    }
+
+    /**
+     * Counts the distinct regions and IP addresses within [time - window, time], excluding the given ones. Requests
+     * for the newest point in time are answered from the counters, late transactions scan the buffer.
+     *
+     * @param time   Time of the transaction (epoch seconds)
+     * @param region Region ordinal of the transaction
+     * @param ip     Packed IP address of the transaction
+     * @return The correlation counts
+     */
+    CorrelationCounts count(long time, int region, int ip) {
+        long from = time - windowSeconds;
+
+        if (time >= newest) {
+            evictBefore(from);
+            long regionCount = distinctRegions - (regionCounts[region] > 0 ? 1 : 0);
+            long ipCount = ipCounts.size() - (ipCounts.get(ip) > 0 ? 1 : 0);
+            return new CorrelationCounts(regionCount, ipCount);
+        }
+
+        boolean[] seenRegions = new boolean[NO_REGION + 1];
+        IntHashSet seenIps = new IntHashSet();
+        long regionCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (timestamps.length - 1);
+            if (timestamps[index] < from) continue;
+            if (timestamps[index] > time) break;
+
+            if (regions[index] != region && !seenRegions[regions[index]]) {
+                seenRegions[regions[index]] = true;
+                regionCount++;
+            }
+            if (ips[index] != ip) seenIps.add(ips[index]);
+        }
+
+        return new CorrelationCounts(regionCount, seenIps.size());
+    }
+
+    /**
+     * Adds a transaction to the window and evicts everything that dropped out of the window of the newest entry.
+     *
+     * @param time   Time of the transaction (epoch seconds)
+     * @param region Region ordinal of the transaction
+     * @param ip     Packed IP address of the transaction
+     */
+    void add(long time, int region, int ip) {
+        if (newest != Long.MIN_VALUE && time < newest - windowSeconds) {
+            // Too old to matter for upcoming transactions, but the window no longer covers that time
+            evictedUpTo = Math.max(evictedUpTo, time);
+            return;
+        }
+        if (size == timestamps.length) grow();
+
+        // Keep the buffer sorted, late transactions are moved in from the tail
+        int mask = timestamps.length - 1;
+        int position = size;
+        while (position > 0 && timestamps[(head + position - 1) & mask] > time) {
+            int from = (head + position - 1) & mask;
+            int to = (head + position) & mask;
+            timestamps[to] = timestamps[from];
+            regions[to] = regions[from];
+            ips[to] = ips[from];
+            position--;
+        }
+
+        int index = (head + position) & mask;
+        timestamps[index] = time;
+        regions[index] = (byte) region;
+        ips[index] = ip;
+        size++;
+
+        if (regionCounts[region]++ == 0) distinctRegions++;
+        ipCounts.increment(ip);
+
+        newest = Math.max(newest, time);
+        evictBefore(newest - windowSeconds);
+    }
+
+    long getNewest() {
+        return newest;
+    }
+
+    private void evictBefore(long cutoff) {
+        int mask = timestamps.length - 1;
+
+        while (size > 0 && timestamps[head] < cutoff) {
+            evictedUpTo = Math.max(evictedUpTo, timestamps[head]);
+            if (--regionCounts[regions[head]] == 0) distinctRegions--;
+            ipCounts.decrement(ips[head]);
+
+            head = (head + 1) & mask;
+            size--;
+        }
+    }
+
+    private void grow() {
+        int capacity = timestamps.length << 1;
+        long[] newTimestamps = new long[capacity];
+        byte[] newRegions = new byte[capacity];
+        int[] newIps = new int[capacity];
+
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (timestamps.length - 1);
+            newTimestamps[i] = timestamps[index];
+            newRegions[i] = regions[index];
+            newIps[i] = ips[index];
+        }
+
+        timestamps = newTimestamps;
+        regions = newRegions;
+        ips = newIps;
+        head = 0;
+    }
+}
@@ -0,0 +1,233 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import io.github.dankoller.antifraud.util.CorrelationRule;
+import io.github.dankoller.antifraud.util.IPAddressValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process sliding-window state per card used for the region and IP correlation heuristics. The state of a card is
+ * rebuilt from the transaction history the first time it is needed (e.g. after a cold start) and kept up to date
+ * afterwards, so the history doesn't have to be queried for every transaction. Windows of idle cards are dropped
+ * whenever the number of cards doubled, and down to a low-water mark below max-cards, so the cost of eviction per new
+ * card is constant.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class CardWindowStore implements CorrelationRule.Source {
+
+    public static final Duration CORRELATION_WINDOW = Duration.ofHours(1);
+    private static final int MIN_EVICTION_SIZE = 1024;
+
+    // Windows of idle cards are dropped above this size, they are rebuilt from the history when needed again
+    @Value("${antifraud.correlation.max-cards:100000}")
+    private int maxCards;
+
+    private final Map<Long, CardWindow> windows = new ConcurrentHashMap<>();
+
+    // Only one thread scans the windows, the others go on without waiting
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile int nextEviction = MIN_EVICTION_SIZE;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionWriter transactionWriter;
+
+    /**
+     * Counts the distinct regions and IP addresses a card was used with within the correlation window before the
+     * given time, excluding the region and IP address of the transaction being verified.
+     *
+     * @param numberKey Numeric card key of the transaction
+     * @param date      Date of the transaction
+     * @param region    Region of the transaction
+     * @param ip        IP address of the transaction
+     * @return The correlation counts
+     */
+    @Override
+    public CorrelationCounts correlate(long numberKey, LocalDateTime date, Region region, String ip) {
+        long time = toEpochSeconds(date);
+        long from = time - CORRELATION_WINDOW.getSeconds();
+        int packedIp = IPAddressValidator.pack(ip);
+
+        CardWindow window = windows.get(numberKey);
+        if (window == null) {
+            if (windows.size() >= Math.min(nextEviction, maxCards)) evictIdleCards(time);
+            window = windows.computeIfAbsent(numberKey, key -> rebuild(key, date));
+        }
+
+        synchronized (window) {
+            if (window.covers(from)) return window.count(time, regionOrdinal(region), packedIp);
+        }
+
+        // Transactions that arrive much later than newer ones of the same card fall back to the history
+        return countFromHistory(numberKey, date, region, ip);
+    }
+
+    /**
+     * Counts like {@link #correlate}, but only if the window of the card is cached and covers the transaction. Never
+     * queries the history and never waits for a window that is being rebuilt.
+     *
+     * @param numberKey Numeric card key of the transaction
+     * @param date      Date of the transaction
+     * @param region    Region of the transaction
+     * @param ip        IP address of the transaction
+     * @return The correlation counts or null if the window isn't cached
+     */
+    @Override
+    public CorrelationCounts correlateIfCached(long numberKey, LocalDateTime date, Region region, String ip) {
+        CardWindow window = windows.get(numberKey);
+        if (window == null) return null;
+
+        long time = toEpochSeconds(date);
+        synchronized (window) {
+            if (!window.covers(time - CORRELATION_WINDOW.getSeconds())) return null;
+            return window.count(time, regionOrdinal(region), IPAddressValidator.pack(ip));
+        }
+    }
+
+    /**
+     * Adds a stored transaction to the window of its card. Cards without state are skipped, their window will be
+     * rebuilt from the history including this transaction. A window that is being rebuilt at the same time is waited
+     * for; if the rebuild already saw the transaction, adding it again doesn't change the distinct counts.
+     *
+     * @param transaction Transaction that was saved
+     */
+    public void record(Transaction transaction) {
+        windows.computeIfPresent(transaction.getNumberKey(), (numberKey, window) -> {
+            synchronized (window) {
+                window.add(toEpochSeconds(transaction.getDate()),
+                        regionOrdinal(transaction.getRegion()),
+                        IPAddressValidator.pack(transaction.getIp()));
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Drops the window of a card, e.g. after transactions could not be stored. It is rebuilt from the history when
+     * the card is used the next time.
+     *
+     * @param numberKey Numeric key of the card whose window is dropped
+     */
+    public void invalidate(long numberKey) {
+        windows.remove(numberKey);
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    /**
+     * Helper method that loads the window of a card from the transaction history.
+     *
+     * @param numberKey Numeric key of the card whose state is missing
+     * @param date      Date of the transaction that requested the state
+     * @return The window of the card
+     */
+    private CardWindow rebuild(long numberKey, LocalDateTime date) {
+        LocalDateTime from = date.minus(CORRELATION_WINDOW);
+
+        // Transactions waiting in the write-behind queue aren't in the database yet, read them first
+        List<Transaction> pending = transactionWriter.pending(numberKey);
+        // Transactions dated after the requesting one may already be stored, the window has to include them as well
+        List<Transaction> history = transactionRepository.findAllByNumberKeyAndDateGreaterThanEqual(numberKey, from);
+        CardWindow window = new CardWindow(CORRELATION_WINDOW.getSeconds(), toEpochSeconds(from));
+
+        // A transaction stored in between shows up twice, which doesn't change the distinct counts
+        for (List<Transaction> transactions : List.of(pending, history)) {
+            for (Transaction previous : transactions) {
+                if (previous.getDate().isBefore(from)) continue;
+                window.add(toEpochSeconds(previous.getDate()),
+                        regionOrdinal(previous.getRegion()),
+                        IPAddressValidator.pack(previous.getIp()));
+            }
+        }
+
+        return window;
+    }
+
+    /**
+     * Helper method that counts the correlation directly from the transaction history.
+     */
+    private CorrelationCounts countFromHistory(long numberKey, LocalDateTime date, Region region, String ip) {
+        List<Transaction> history = new ArrayList<>();
+        for (Transaction transaction : transactionWriter.pending(numberKey)) {
+            if (!transaction.getDate().isBefore(date.minus(CORRELATION_WINDOW)) && !transaction.getDate().isAfter(date)) {
+                history.add(transaction);
+            }
+        }
+        history.addAll(loadHistory(numberKey, date));
+
+        long regionCount = history.stream()
+                .map(Transaction::getRegion)
+                .filter(previous -> previous != region)
+                .distinct().count();
+
+        long ipCount = history.stream()
+                .map(Transaction::getIp)
+                .filter(previous -> !previous.equals(ip))
+                .distinct().count();
+
+        return new CorrelationCounts(regionCount, ipCount);
+    }
+
+    private List<Transaction> loadHistory(long numberKey, LocalDateTime date) {
+        return transactionRepository.findAllByDateBetweenAndNumberKey(date.minus(CORRELATION_WINDOW), date, numberKey);
+    }
+
+    /**
+     * Helper method that drops the windows of cards without transactions in the last window. If too many cards are
+     * active, arbitrary windows are dropped down to the low-water mark, they are rebuilt from the history on their next
+     * transaction. Either way the next scan only happens after many new cards, so a store full of active cards doesn't
+     * scan all of them for every correlation miss.
+     *
+     * @param now Time of the current transaction (epoch seconds)
+     */
+    private void evictIdleCards(long now) {
+        // Another thread is scanning already, the store may exceed its bound by a few cards meanwhile
+        if (!evictionLock.tryLock()) return;
+        try {
+            if (windows.size() < Math.min(nextEviction, maxCards)) return;
+
+            long idleBefore = now - CORRELATION_WINDOW.getSeconds();
+            windows.values().removeIf(window -> window.getNewest() < idleBefore);
+
+            int lowWaterMark = maxCards - Math.max(1, maxCards / 10);
+            Iterator<Long> iterator = windows.keySet().iterator();
+            while (windows.size() > lowWaterMark && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+
+            nextEviction = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_EVICTION_SIZE, 2L * windows.size()));
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    static long toEpochSeconds(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static int regionOrdinal(Region region) {
+        return region == null ? CardWindow.NO_REGION : region.ordinal();
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.dankoller.antifraud.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Number of distinct regions and IP addresses used with a card within the correlation window, not counting the
+ * region and IP address of the transaction being verified.
+ */
+@AllArgsConstructor
+@Getter
+public class CorrelationCounts {
+
+    private final long regionCount;
+    private final long ipCount;
+}
@@ -0,0 +1,169 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of recently verified credentials, so repeated Basic auth requests of the same user skip the user
+ * lookup and the BCrypt match. Only a keyed hash (HMAC-SHA256) of the password is kept, the key is generated randomly
+ * on startup and never leaves the process. Entries expire after a fixed time and must be invalidated whenever the
+ * role, lock status or password of a user changes or the user is deleted.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class CredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${antifraud.auth-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${antifraud.auth-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Counts invalidations, credentials verified before the last one are not cached anymore
+    private final AtomicLong generation = new AtomicLong();
+
+    private SecretKeySpec key;
+
+    // Mac instances aren't thread-safe, every thread keeps its own
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    @PostConstruct
+    public void init() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        key = new SecretKeySpec(secret, ALGORITHM);
+
+        FunctionCounter.builder("antifraud.auth_cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("antifraud.auth_cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("antifraud.auth_cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached user if the given password was verified for the user before and the entry hasn't expired.
+     *
+     * @param username The presented username
+     * @param password The presented password
+     * @return The user details or null if the credentials have to be verified again
+     */
+    public UserDetails get(String username, String password) {
+        Entry entry = entries.get(username);
+        if (entry == null || entry.expiresAt - System.nanoTime() <= 0
+                || !MessageDigest.isEqual(entry.digest, digest(password))) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.user;
+    }
+
+    /**
+     * Returns the current generation, which has to be read before the credentials are verified against the database.
+     *
+     * @return The number of invalidations so far
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores credentials that were just verified against the database. They are skipped if any user was invalidated
+     * while they were verified, since the loaded user might already be outdated.
+     *
+     * @param user       The authenticated user
+     * @param password   The password that was verified
+     * @param generation The generation read before the verification started
+     */
+    public void put(UserDetails user, String password, long generation) {
+        if (entries.size() >= maxSize) evict();
+
+        Entry entry = new Entry(user, digest(password), System.nanoTime() + ttlSeconds * 1_000_000_000L);
+        entries.put(user.getUsername(), entry);
+
+        // An invalidation in between might have missed the entry, drop it again
+        if (this.generation.get() != generation) entries.remove(user.getUsername(), entry);
+    }
+
+    /**
+     * Drops the cached credentials of a user, so the next request is verified against the database again.
+     *
+     * @param username The username of the changed or deleted user
+     */
+    public void invalidate(String username) {
+        generation.incrementAndGet();
+        if (username != null) entries.remove(username);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Helper method that drops expired entries first and arbitrary ones if the cache is still full.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.expiresAt - now <= 0);
+
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() >= maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private byte[] digest(String password) {
+        return macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final UserDetails user;
+        private final byte[] digest;
+        private final long expiresAt;
+
+        private Entry(UserDetails user, byte[] digest, long expiresAt) {
+            this.user = user;
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
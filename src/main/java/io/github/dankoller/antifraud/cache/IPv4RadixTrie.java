@@ -0,0 +1,162 @@
+package io.github.dankoller.antifraud.cache;
+
+/**
+ * Immutable, path-compressed binary radix trie of IPv4 CIDR ranges. A lookup walks at most 32 bits no matter how many
+ * ranges are stored. Adding or removing a range copies only the nodes on the affected path and returns a new trie, so
+ * a published instance can be read by any number of threads without locking.
+ */
+public final class IPv4RadixTrie {
+
+    private static final IPv4RadixTrie EMPTY = new IPv4RadixTrie(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private IPv4RadixTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static IPv4RadixTrie empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a trie that additionally contains the given range.
+     *
+     * @param network      The packed network address, host bits are ignored
+     * @param prefixLength The prefix length between 0 and 32
+     * @return A trie containing the range, this instance if it was already present
+     */
+    public IPv4RadixTrie with(int network, int prefixLength) {
+        Node newRoot = insert(root, mask(network, prefixLength), prefixLength);
+        return newRoot == root ? this : new IPv4RadixTrie(newRoot, size + 1);
+    }
+
+    /**
+     * Returns a trie without the given range. Other ranges that cover the same addresses are kept.
+     *
+     * @param network      The packed network address, host bits are ignored
+     * @param prefixLength The prefix length between 0 and 32
+     * @return A trie without the range, this instance if it wasn't present
+     */
+    public IPv4RadixTrie without(int network, int prefixLength) {
+        Node newRoot = remove(root, mask(network, prefixLength), prefixLength);
+        return newRoot == root ? this : new IPv4RadixTrie(newRoot, size - 1);
+    }
+
+    /**
+     * Finds the longest stored range that contains the given address.
+     *
+     * @param address The packed IPv4 address
+     * @return The prefix length of the longest matching range or -1 if no range matches
+     */
+    public int longestMatch(int address) {
+        int longest = -1;
+        Node node = root;
+
+        while (node != null && mask(address, node.length) == node.prefix) {
+            if (node.terminal) longest = node.length;
+            if (node.length == 32) break;
+            node = bit(address, node.length) == 0 ? node.zero : node.one;
+        }
+
+        return longest;
+    }
+
+    public boolean contains(int address) {
+        return longestMatch(address) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static Node insert(Node node, int prefix, int length) {
+        if (node == null) return new Node(prefix, length, true, null, null);
+
+        int common = Math.min(Math.min(commonPrefixLength(node.prefix, prefix), node.length), length);
+
+        if (common == node.length) {
+            if (length == node.length) return node.terminal ? node : new Node(node.prefix, length, true, node.zero, node.one);
+
+            // The node is a prefix of the new range, continue with the matching child
+            if (bit(prefix, node.length) == 0) {
+                Node zero = insert(node.zero, prefix, length);
+                return zero == node.zero ? node : new Node(node.prefix, node.length, node.terminal, zero, node.one);
+            } else {
+                Node one = insert(node.one, prefix, length);
+                return one == node.one ? node : new Node(node.prefix, node.length, node.terminal, node.zero, one);
+            }
+        }
+
+        // Split the compressed edge at the first differing bit
+        int commonPrefix = mask(prefix, common);
+        if (common == length) {
+            return bit(node.prefix, common) == 0
+                    ? new Node(commonPrefix, common, true, node, null)
+                    : new Node(commonPrefix, common, true, null, node);
+        }
+
+        Node leaf = new Node(prefix, length, true, null, null);
+        return bit(prefix, common) == 0
+                ? new Node(commonPrefix, common, false, leaf, node)
+                : new Node(commonPrefix, common, false, node, leaf);
+    }
+
+    private static Node remove(Node node, int prefix, int length) {
+        if (node == null || node.length > length || mask(prefix, node.length) != node.prefix) return node;
+
+        if (node.length == length) {
+            if (!node.terminal) return node;
+            return compress(node.prefix, node.length, false, node.zero, node.one);
+        }
+
+        if (bit(prefix, node.length) == 0) {
+            Node zero = remove(node.zero, prefix, length);
+            return zero == node.zero ? node : compress(node.prefix, node.length, node.terminal, zero, node.one);
+        } else {
+            Node one = remove(node.one, prefix, length);
+            return one == node.one ? node : compress(node.prefix, node.length, node.terminal, node.zero, one);
+        }
+    }
+
+    /**
+     * Helper method that drops non-terminal nodes with less than two children to keep the trie path-compressed.
+     */
+    private static Node compress(int prefix, int length, boolean terminal, Node zero, Node one) {
+        if (!terminal) {
+            if (zero == null) return one;
+            if (one == null) return zero;
+        }
+        return new Node(prefix, length, terminal, zero, one);
+    }
+
+    private static int commonPrefixLength(int a, int b) {
+        return Integer.numberOfLeadingZeros(a ^ b);
+    }
+
+    private static int bit(int value, int index) {
+        return (value >>> (31 - index)) & 1;
+    }
+
+    private static int mask(int value, int length) {
+        return length == 0 ? 0 : value & (-1 << (32 - length));
+    }
+
+    private static final class Node {
+        private final int prefix;
+        private final int length;
+        private final boolean terminal;
+        private final Node zero;
+        private final Node one;
+
+        private Node(int prefix, int length, boolean terminal, Node zero, Node one) {
+            this.prefix = prefix;
+            this.length = length;
+            this.terminal = terminal;
+            this.zero = zero;
+            this.one = one;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.dankoller.antifraud.cache;
+
+/**
+ * Open-addressing multiset for primitive int keys. It keeps an occurrence count per key, so the number of distinct
+ * keys can be maintained incrementally while values enter and leave a window. This class is not thread-safe.
+ */
+public class IntCountMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] counts;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public IntCountMap() {
+        allocate(16);
+    }
+
+    /**
+     * Increments the count of a key.
+     *
+     * @param key The key to be counted
+     * @return The new count of the key
+     */
+    public int increment(int key) {
+        int index = indexOf(key);
+        while (counts[index] != 0) {
+            if (keys[index] == key) return ++counts[index];
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        counts[index] = 1;
+        if (++size > resizeThreshold) rehash(keys.length << 1);
+
+        return 1;
+    }
+
+    /**
+     * Decrements the count of a key and drops the key once its count reaches zero.
+     *
+     * @param key The key to be decremented
+     * @return The new count of the key
+     */
+    public int decrement(int key) {
+        int index = indexOf(key);
+        while (counts[index] != 0 && keys[index] != key) index = (index + 1) & mask;
+
+        if (counts[index] == 0) return 0;
+        if (--counts[index] > 0) return counts[index];
+
+        // Backward shift deletion
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (counts[next] != 0) {
+            int home = indexOf(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        counts[hole] = 0;
+        size--;
+
+        return 0;
+    }
+
+    /**
+     * Returns the count of a key.
+     *
+     * @param key The key to be looked up
+     * @return The count of the key, 0 if it isn't present
+     */
+    public int get(int key) {
+        int index = indexOf(key);
+        while (counts[index] != 0) {
+            if (keys[index] == key) return counts[index];
+            index = (index + 1) & mask;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the number of distinct keys with a count above zero.
+     *
+     * @return Number of distinct keys
+     */
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(int key) {
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] == 0) continue;
+            int index = indexOf(oldKeys[i]);
+            while (counts[index] != 0) index = (index + 1) & mask;
+            keys[index] = oldKeys[i];
+            counts[index] = oldCounts[i];
+        }
+    }
+}
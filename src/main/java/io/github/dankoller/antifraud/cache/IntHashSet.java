@@ -0,0 +1,166 @@
+package io.github.dankoller.antifraud.cache;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set for primitive int keys using linear probing. Keys are stored unboxed in a single array,
+ * so a lookup costs one hash and a short probe sequence. This class is not thread-safe; owners guard access.
+ */
+public class IntHashSet {
+
+    // Zero marks a free slot, the key 0 itself is tracked separately
+    private static final int FREE = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsZero;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    public IntHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private IntHashSet(IntHashSet source) {
+        this.keys = source.keys.clone();
+        this.mask = source.mask;
+        this.size = source.size;
+        this.resizeThreshold = source.resizeThreshold;
+        this.containsZero = source.containsZero;
+    }
+
+    /**
+     * Adds a key to the set.
+     *
+     * @param key The key to be added
+     * @return True if the key was not present before, false otherwise
+     */
+    public boolean add(int key) {
+        if (key == FREE) {
+            if (containsZero) return false;
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int index = indexOf(key);
+        while (keys[index] != FREE) {
+            if (keys[index] == key) return false;
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        if (++size > resizeThreshold) rehash(keys.length << 1);
+
+        return true;
+    }
+
+    /**
+     * Checks if a key is present in the set.
+     *
+     * @param key The key to be checked
+     * @return True if the key is present, false otherwise
+     */
+    public boolean contains(int key) {
+        if (key == FREE) return containsZero;
+
+        int index = indexOf(key);
+        int current;
+        while ((current = keys[index]) != FREE) {
+            if (current == key) return true;
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes a key from the set. Following entries of the probe chain are shifted back, so no tombstones are needed.
+     *
+     * @param key The key to be removed
+     * @return True if the key was present, false otherwise
+     */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            if (!containsZero) return false;
+            containsZero = false;
+            size--;
+            return true;
+        }
+
+        int index = indexOf(key);
+        while (keys[index] != key) {
+            if (keys[index] == FREE) return false;
+            index = (index + 1) & mask;
+        }
+
+        // Backward shift deletion
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = indexOf(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = FREE;
+        size--;
+
+        return true;
+    }
+
+    /**
+     * Creates an independent copy of this set, used to build a new snapshot without touching the published one.
+     *
+     * @return A copy of this set
+     */
+    public IntHashSet copy() {
+        return new IntHashSet(this);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        containsZero = false;
+        size = 0;
+    }
+
+    private int indexOf(int key) {
+        // Murmur3 finalizer spreads neighbouring addresses over the table
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        allocate(capacity);
+
+        for (int key : oldKeys) {
+            if (key == FREE) continue;
+            int index = indexOf(key);
+            while (keys[index] != FREE) index = (index + 1) & mask;
+            keys[index] = key;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.util.CorrelationRule;
+import io.github.dankoller.antifraud.util.IPAddressValidator;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Correlation windows of the cards of a replay, built from the replayed transactions only instead of the database.
+ * Windows of cards without transactions in the last window are dropped from time to time, so memory use depends on
+ * the number of active cards rather than on the length of the replay. This class is not thread-safe; every replay
+ * partition keeps its own instance.
+ */
+public class ReplayWindows implements CorrelationRule.Source {
+
+    private static final int MIN_EVICTION_SIZE = 1024;
+
+    private final long windowSeconds;
+    private final Map<Long, CardWindow> windows = new HashMap<>();
+    private int nextEviction = MIN_EVICTION_SIZE;
+
+    public ReplayWindows(Duration window) {
+        this.windowSeconds = window.getSeconds();
+    }
+
+    /**
+     * Counts the distinct regions and IP addresses of the replayed transactions of a card within the window before
+     * the given time, like {@link CardWindowStore#correlate} does for live transactions.
+     *
+     * @param numberKey Numeric card key of the transaction
+     * @param date      Date of the transaction
+     * @param region    Region of the transaction
+     * @param ip        IP address of the transaction
+     * @return The correlation counts
+     */
+    @Override
+    public CorrelationCounts correlate(long numberKey, LocalDateTime date, Region region, String ip) {
+        CardWindow window = windows.get(numberKey);
+        if (window == null) return new CorrelationCounts(0, 0);
+
+        return window.count(CardWindowStore.toEpochSeconds(date), CardWindowStore.regionOrdinal(region),
+                IPAddressValidator.pack(ip));
+    }
+
+    // All windows of a replay are in memory
+    @Override
+    public CorrelationCounts correlateIfCached(long numberKey, LocalDateTime date, Region region, String ip) {
+        return correlate(numberKey, date, region, ip);
+    }
+
+    /**
+     * Adds a replayed transaction to the window of its card.
+     *
+     * @param transaction Transaction that was replayed
+     */
+    public void record(Transaction transaction) {
+        long time = CardWindowStore.toEpochSeconds(transaction.getDate());
+
+        // Evicting once the map doubled keeps the cost per transaction constant
+        if (windows.size() >= nextEviction) {
+            evictIdleCards(time);
+            nextEviction = Math.max(MIN_EVICTION_SIZE, windows.size() * 2);
+        }
+
+        windows.computeIfAbsent(transaction.getNumberKey(), key -> new CardWindow(windowSeconds, time))
+                .add(time, CardWindowStore.regionOrdinal(transaction.getRegion()),
+                        IPAddressValidator.pack(transaction.getIp()));
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    private void evictIdleCards(long now) {
+        long idleBefore = now - windowSeconds;
+        windows.values().removeIf(window -> window.getNewest() < idleBefore);
+    }
+}
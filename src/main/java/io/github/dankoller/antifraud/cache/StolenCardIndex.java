@@ -0,0 +1,100 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.util.CardValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of all cards flagged as stolen, keyed by the numeric card key (see
+ * {@link CardValidator#toKey(String)}), so checking a transaction against the index doesn't require a database round
+ * trip.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class StolenCardIndex {
+
+    private final LongHashSet stolenCards = new LongHashSet(1024);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    /**
+     * Loads all locked cards from the database when the application starts.
+     */
+    @PostConstruct
+    public void load() {
+        List<Card> lockedCards = cardRepository.findAllByIsLockedTrue();
+
+        lock.writeLock().lock();
+        try {
+            stolenCards.clear();
+            for (Card card : lockedCards) {
+                long key = CardValidator.toKey(card.getNumber());
+                if (key != CardValidator.INVALID) stolenCards.add(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if a card is flagged as stolen.
+     *
+     * @param key The numeric key of a valid card number
+     * @return True if the card is flagged as stolen, false otherwise
+     */
+    public boolean contains(long key) {
+        lock.readLock().lock();
+        try {
+            return stolenCards.contains(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flags a card as stolen.
+     *
+     * @param key The numeric key of a valid card number
+     */
+    public void add(long key) {
+        lock.writeLock().lock();
+        try {
+            stolenCards.add(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the stolen flag from a card.
+     *
+     * @param key The numeric key of a valid card number
+     */
+    public void remove(long key) {
+        lock.writeLock().lock();
+        try {
+            stolenCards.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return stolenCards.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
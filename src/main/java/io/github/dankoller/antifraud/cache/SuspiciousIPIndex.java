@@ -0,0 +1,140 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.IPAddress;
+import io.github.dankoller.antifraud.persistence.SuspiciousIPRepository;
+import io.github.dankoller.antifraud.util.IPAddressValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * In-memory blocklist of suspicious IPv4 addresses and CIDR ranges. Single addresses are packed into 32-bit ints and
+ * kept in a hash set, ranges are kept in a radix trie. Readers work on an immutable snapshot that is replaced as a
+ * whole on every change (copy-on-write), so lookups never take a lock.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class SuspiciousIPIndex {
+
+    private volatile Snapshot snapshot = new Snapshot(new IntHashSet(), IPv4RadixTrie.empty());
+
+    @Autowired
+    private SuspiciousIPRepository suspiciousIPRepository;
+
+    /**
+     * Loads all suspicious IP addresses and ranges from the database when the application starts.
+     */
+    @PostConstruct
+    public synchronized void load() {
+        List<IPAddress> ipAddresses = suspiciousIPRepository.findAll();
+        IntHashSet addresses = new IntHashSet(ipAddresses.size());
+        IPv4RadixTrie ranges = IPv4RadixTrie.empty();
+
+        for (IPAddress ipAddress : ipAddresses) {
+            String entry = ipAddress.getIp();
+            if (IPAddressValidator.isCidr(entry)) {
+                ranges = ranges.with(IPAddressValidator.pack(entry), IPAddressValidator.prefixLength(entry));
+            } else {
+                addresses.add(IPAddressValidator.pack(entry));
+            }
+        }
+
+        snapshot = new Snapshot(addresses, ranges);
+    }
+
+    /**
+     * Checks if an IP address is flagged as suspicious, either directly or by one of the blocked ranges.
+     *
+     * @param ip A valid IPv4 address
+     * @return True if the IP address is flagged as suspicious, false otherwise
+     */
+    public boolean contains(String ip) {
+        int address = IPAddressValidator.pack(ip);
+        Snapshot current = snapshot;
+
+        return current.addresses.contains(address) || current.ranges.contains(address);
+    }
+
+    /**
+     * Flags an IP address or CIDR range as suspicious and publishes a new snapshot.
+     *
+     * @param entry A valid IPv4 address or CIDR range
+     */
+    public synchronized void add(String entry) {
+        Snapshot current = snapshot;
+
+        if (IPAddressValidator.isCidr(entry)) {
+            IPv4RadixTrie ranges = current.ranges.with(IPAddressValidator.pack(entry),
+                    IPAddressValidator.prefixLength(entry));
+            snapshot = new Snapshot(current.addresses, ranges);
+        } else {
+            IntHashSet addresses = current.addresses.copy();
+            addresses.add(IPAddressValidator.pack(entry));
+            snapshot = new Snapshot(addresses, current.ranges);
+        }
+    }
+
+    /**
+     * Flags several IP addresses or CIDR ranges as suspicious and publishes a single new snapshot, so a bulk import
+     * copies the address set once per batch instead of once per entry.
+     *
+     * @param entries Valid IPv4 addresses or CIDR ranges
+     */
+    public synchronized void addAll(Collection<String> entries) {
+        if (entries.isEmpty()) return;
+
+        Snapshot current = snapshot;
+        IntHashSet addresses = null;
+        IPv4RadixTrie ranges = current.ranges;
+
+        for (String entry : entries) {
+            if (IPAddressValidator.isCidr(entry)) {
+                ranges = ranges.with(IPAddressValidator.pack(entry), IPAddressValidator.prefixLength(entry));
+            } else {
+                if (addresses == null) addresses = current.addresses.copy();
+                addresses.add(IPAddressValidator.pack(entry));
+            }
+        }
+
+        snapshot = new Snapshot(addresses == null ? current.addresses : addresses, ranges);
+    }
+
+    /**
+     * Removes an IP address or CIDR range from the blocklist and publishes a new snapshot.
+     *
+     * @param entry A valid IPv4 address or CIDR range
+     */
+    public synchronized void remove(String entry) {
+        Snapshot current = snapshot;
+
+        if (IPAddressValidator.isCidr(entry)) {
+            IPv4RadixTrie ranges = current.ranges.without(IPAddressValidator.pack(entry),
+                    IPAddressValidator.prefixLength(entry));
+            snapshot = new Snapshot(current.addresses, ranges);
+        } else {
+            IntHashSet addresses = current.addresses.copy();
+            addresses.remove(IPAddressValidator.pack(entry));
+            snapshot = new Snapshot(addresses, current.ranges);
+        }
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current.addresses.size() + current.ranges.size();
+    }
+
+    // Addresses and ranges are published together so readers never see a half-applied change
+    private static final class Snapshot {
+        private final IntHashSet addresses;
+        private final IPv4RadixTrie ranges;
+
+        private Snapshot(IntHashSet addresses, IPv4RadixTrie ranges) {
+            this.addresses = addresses;
+            this.ranges = ranges;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.dankoller.antifraud.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number and total amount of the recent transactions of a single card, kept in fixed-size rings of time buckets with
+ * one ring per velocity window. Every bucket consists of two words, one for the count and one for the amount. The
+ * upper 24 bits of a word hold the bucket number (time / bucket width) it belongs to, the lower 40 bits the value.
+ * A bucket is reused by replacing the whole word once its ring wraps around, so updates are a single CAS per word
+ * and need no lock. Count and amount are updated separately, a concurrent reader may see one without the other.
+ */
+class VelocityCounter {
+
+    // Width (seconds) and number of the buckets of every window, a window covers between (n - 1) and n buckets
+    static final long[] BUCKET_SECONDS = {10, 60, 3600};
+    static final int[] BUCKETS = {6, 10, 24};
+
+    private static final int VALUE_BITS = 40;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long STAMP_MASK = (1L << (Long.SIZE - VALUE_BITS)) - 1;
+
+    // Offset of the first bucket of every window in the slots
+    private static final int[] OFFSETS = new int[BUCKETS.length];
+    private static final int SLOTS;
+
+    static {
+        int offset = 0;
+        for (int window = 0; window < BUCKETS.length; window++) {
+            OFFSETS[window] = offset;
+            offset += BUCKETS[window] * 2;
+        }
+        SLOTS = offset;
+    }
+
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private final AtomicLong newest = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Adds a transaction to the bucket of its time in every window. Transactions older than a window are only added
+     * to the windows that still cover them.
+     *
+     * @param time   Time of the transaction (epoch seconds)
+     * @param amount Amount of the transaction
+     */
+    void add(long time, long amount) {
+        newest.accumulateAndGet(time, Math::max);
+        update(time, 1, amount);
+    }
+
+    /**
+     * Takes a transaction back out of the windows, e.g. after it could not be stored. Buckets that were reused in
+     * the meantime no longer contain the transaction and are left alone.
+     *
+     * @param time   Time of the transaction (epoch seconds)
+     * @param amount Amount of the transaction
+     */
+    void subtract(long time, long amount) {
+        update(time, -1, -amount);
+    }
+
+    /**
+     * Sums up the buckets of every window that end at the given time.
+     *
+     * @param time Time of the transaction being verified (epoch seconds)
+     * @return The count and total amount of every window
+     */
+    VelocityCounts sum(long time) {
+        long[] counts = new long[BUCKETS.length];
+        long[] amounts = new long[BUCKETS.length];
+
+        for (int window = 0; window < BUCKETS.length; window++) {
+            long bucket = time / BUCKET_SECONDS[window];
+            for (int i = 0; i < BUCKETS[window]; i++) {
+                int slot = OFFSETS[window] + i * 2;
+                counts[window] += valueIn(slots.get(slot), bucket, BUCKETS[window]);
+                amounts[window] += valueIn(slots.get(slot + 1), bucket, BUCKETS[window]);
+            }
+        }
+
+        return new VelocityCounts(counts, amounts);
+    }
+
+    long getNewest() {
+        return newest.get();
+    }
+
+    private void update(long time, long count, long amount) {
+        for (int window = 0; window < BUCKETS.length; window++) {
+            long bucket = time / BUCKET_SECONDS[window];
+            int slot = OFFSETS[window] + (int) Math.floorMod(bucket, (long) BUCKETS[window]) * 2;
+            update(slot, bucket, count);
+            update(slot + 1, bucket, amount);
+        }
+    }
+
+    /**
+     * Helper method that adds a value to a bucket, starting the bucket over if the ring wrapped around since it was
+     * used last. Values for buckets that were already reused for a later time are dropped, and subtractions only apply
+     * to the bucket they were added to.
+     */
+    private void update(int slot, long bucket, long delta) {
+        long stamp = bucket & STAMP_MASK;
+
+        while (true) {
+            long word = slots.get(slot);
+            long current = word >>> VALUE_BITS;
+            long updated;
+
+            if (current == stamp) {
+                long value = Math.min(Math.max((word & VALUE_MASK) + delta, 0), VALUE_MASK);
+                updated = (stamp << VALUE_BITS) | value;
+            } else if (delta > 0 && ((word & VALUE_MASK) == 0 || isBefore(current, stamp))) {
+                // Empty buckets can be taken over no matter which time they were used for
+                updated = (stamp << VALUE_BITS) | Math.min(delta, VALUE_MASK);
+            } else {
+                return;
+            }
+
+            if (slots.compareAndSet(slot, word, updated)) return;
+        }
+    }
+
+    /**
+     * Helper method that returns the value of a word if it belongs to one of the buckets of the window ending at the
+     * given bucket. Words of later buckets (i.e. a late transaction is verified) are ignored as well.
+     */
+    private static long valueIn(long word, long bucket, int buckets) {
+        long age = (bucket - (word >>> VALUE_BITS)) & STAMP_MASK;
+        return age < buckets ? word & VALUE_MASK : 0;
+    }
+
+    // Compares two stamps that wrap around after 2^24 buckets
+    private static boolean isBefore(long stamp, long other) {
+        long distance = (other - stamp) & STAMP_MASK;
+        return distance != 0 && distance < (STAMP_MASK >>> 1);
+    }
+}
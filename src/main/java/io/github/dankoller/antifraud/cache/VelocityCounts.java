@@ -0,0 +1,23 @@
+package io.github.dankoller.antifraud.cache;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Number and total amount of the transactions of a card within every velocity window, not counting the transaction
+ * being verified. Windows are indexed in the order of {@link VelocityStore#WINDOWS}.
+ */
+@AllArgsConstructor
+public class VelocityCounts {
+
+    private final long[] counts;
+    private final long[] amounts;
+
+    public long getCount(int window) {
+        return counts[window];
+    }
+
+    public long getAmount(int window) {
+        return amounts[window];
+    }
+
+}
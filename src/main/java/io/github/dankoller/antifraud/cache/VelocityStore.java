@@ -0,0 +1,131 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process transaction count and amount per card over the velocity windows (1 minute, 10 minutes and 24 hours).
+ * Every stored transaction is added to the buckets of its card, so the velocity heuristic never has to read the
+ * transaction history. Counters start empty when the application starts; the longest window is complete after one
+ * day. Updates of a card don't take a lock, see {@link VelocityCounter}. Counters of idle cards are dropped whenever the
+ * number of cards doubled, and down to a low-water mark below max-cards, so the cost of eviction per new card is
+ * constant.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class VelocityStore {
+
+    // Names of the windows, in the order the counts and limits are indexed by
+    public static final List<String> WINDOWS = List.of("1m", "10m", "24h");
+
+    // Cards without transactions in the longest window have empty counters and are dropped first
+    private static final long IDLE_SECONDS = Duration.ofHours(24).getSeconds();
+    private static final int MIN_EVICTION_SIZE = 1024;
+
+    @Value("${antifraud.velocity.max-cards:100000}")
+    private int maxCards;
+
+    private final Map<Long, VelocityCounter> counters = new ConcurrentHashMap<>();
+
+    // Only one thread scans the counters, the others go on without waiting
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile int nextEviction = MIN_EVICTION_SIZE;
+
+    public VelocityStore() {
+    }
+
+    // For stores that aren't managed by Spring, e.g. the counts of a backtest
+    public VelocityStore(int maxCards) {
+        this.maxCards = maxCards;
+    }
+
+    /**
+     * Returns the count and total amount of every window that ends at the given time.
+     *
+     * @param numberKey Numeric card key of the transaction
+     * @param date      Date of the transaction
+     * @return The velocity counts of the card
+     */
+    public VelocityCounts count(long numberKey, LocalDateTime date) {
+        VelocityCounter counter = counters.get(numberKey);
+        if (counter == null) return new VelocityCounts(new long[WINDOWS.size()], new long[WINDOWS.size()]);
+
+        return counter.sum(toEpochSeconds(date));
+    }
+
+    /**
+     * Adds a stored transaction to the counters of its card.
+     *
+     * @param transaction Transaction that was saved
+     */
+    public void record(Transaction transaction) {
+        long time = toEpochSeconds(transaction.getDate());
+
+        VelocityCounter counter = counters.get(transaction.getNumberKey());
+        if (counter == null) {
+            if (counters.size() >= Math.min(nextEviction, maxCards)) evictIdleCards(time);
+            counter = counters.computeIfAbsent(transaction.getNumberKey(), key -> new VelocityCounter());
+        }
+
+        counter.add(time, transaction.getAmount());
+    }
+
+    /**
+     * Takes a transaction back out of the counters of its card, e.g. after it could not be stored.
+     *
+     * @param transaction Transaction that was recorded before
+     */
+    public void remove(Transaction transaction) {
+        VelocityCounter counter = counters.get(transaction.getNumberKey());
+        if (counter != null) counter.subtract(toEpochSeconds(transaction.getDate()), transaction.getAmount());
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * Helper method that drops the counters of cards without transactions in the longest window. If too many cards
+     * are active, arbitrary counters are dropped down to the low-water mark and the velocity of those cards is
+     * underestimated for a while. Either way the next scan only happens after many new cards, so a store full of
+     * active cards doesn't scan all of them for every new one.
+     *
+     * @param now Time of the current transaction (epoch seconds)
+     */
+    private void evictIdleCards(long now) {
+        // Another thread is scanning already, the store may exceed its bound by a few cards meanwhile
+        if (!evictionLock.tryLock()) return;
+        try {
+            if (counters.size() < Math.min(nextEviction, maxCards)) return;
+
+            long idleBefore = now - IDLE_SECONDS;
+            counters.values().removeIf(counter -> counter.getNewest() < idleBefore);
+
+            int lowWaterMark = maxCards - Math.max(1, maxCards / 10);
+            Iterator<Long> iterator = counters.keySet().iterator();
+            while (counters.size() > lowWaterMark && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+
+            nextEviction = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_EVICTION_SIZE, 2L * counters.size()));
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long toEpochSeconds(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+}
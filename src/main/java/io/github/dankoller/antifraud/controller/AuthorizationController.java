@@ -3,6 +3,7 @@ package io.github.dankoller.antifraud.controller;
 import io.github.dankoller.antifraud.entity.user.User;
 import io.github.dankoller.antifraud.request.LoginRequest;
 import io.github.dankoller.antifraud.request.UserDTO;
+import io.github.dankoller.antifraud.response.TokenResponse;
 import io.github.dankoller.antifraud.response.UserDataResponse;
 import io.github.dankoller.antifraud.service.AuthorizationService;
 import io.github.dankoller.antifraud.service.UserService;
@@ -36,9 +37,18 @@ public class AuthorizationController {
     /**
      * Login endpoint for existing users.
      *
+     * @param loginRequest The username and password of the user
+     * @param token        Whether a signed token for bearer authentication should be issued
+     * @return ResponseEntity containing the user's information and the token if requested
      */
     @PostMapping("/login")
-    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest loginRequest) {
+    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest loginRequest,
+                                   @RequestParam(defaultValue = "false") boolean token) {
+        if (token) {
+            TokenResponse tokenResponse = userService.loginWithToken(loginRequest);
+            return new ResponseEntity<>(tokenResponse, HttpStatus.OK);
+        }
+
         UserDataResponse userDataResponse = userService.login(loginRequest);
         return new ResponseEntity<>(userDataResponse, HttpStatus.OK);
     }
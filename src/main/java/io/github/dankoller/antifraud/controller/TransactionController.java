@@ -1,13 +1,22 @@
 package io.github.dankoller.antifraud.controller;
 
 import io.github.dankoller.antifraud.entity.transaction.Transaction;
-import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.request.BacktestRequest;
+import io.github.dankoller.antifraud.request.FeedbackRequest;
+import io.github.dankoller.antifraud.response.BacktestReport;
+import io.github.dankoller.antifraud.response.FeedbackResult;
+import io.github.dankoller.antifraud.response.ShadowReport;
+import io.github.dankoller.antifraud.service.BacktestService;
 import io.github.dankoller.antifraud.service.TransactionService;
+import io.github.dankoller.antifraud.util.ShadowEvaluator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -27,7 +36,10 @@ public class TransactionController {
     private TransactionService transactionService;
 
     @Autowired
-    private TransactionRepository transactionRepository;
+    private BacktestService backtestService;
+
+    @Autowired
+    private ShadowEvaluator shadowEvaluator;
 
     /**
      * Get a list of all transactions.
@@ -40,6 +52,17 @@ public class TransactionController {
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
 
+    /**
+     * Validate a batch of transactions at once.
+     *
+     * @return List with the result and info of every transaction in input order
+     */
+    @PostMapping(value = "/transactions", consumes = "application/json")
+    public ResponseEntity<?> validateTransactions(@RequestBody List<Transaction> transactions) {
+        List<Map<String, String>> response = transactionService.processTransactions(transactions);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
     /**
      * An authenticated support user can provide feedback on a transaction.
      *
@@ -55,13 +78,41 @@ public class TransactionController {
     }
 
     /**
-     * Get a list of all transactions.
+     * An authenticated support user can provide feedback on a batch of transactions at once.
      *
-     * @return List of Transaction objects
+     * @return List with the status and the updated transaction or error of every feedback in input order
+     */
+    @PutMapping(value = "/transactions", consumes = "application/json")
+    public ResponseEntity<?> provideFeedbacks(@RequestBody List<FeedbackRequest> feedbacks) {
+        List<FeedbackResult> response = transactionService.updateTransactions(feedbacks);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    /**
+     * Get all transactions ordered by id. If afterId or limit is given, only one page is returned; pass the id of the
+     * last transaction as afterId to get the next page.
+     *
+     * @return List of all Transaction objects or of at most limit Transaction objects
      */
     @GetMapping("/history")
-    public ResponseEntity<?> getHistory() {
-        return new ResponseEntity<>(transactionRepository.findAll(), HttpStatus.OK);
+    public ResponseEntity<?> getHistory(@RequestParam(required = false) Long afterId,
+                                        @RequestParam(required = false) Integer limit) {
+        List<Transaction> transactions = afterId == null && limit == null
+                ? transactionService.getTransactionHistory()
+                : transactionService.getTransactionHistory(afterId == null ? 0 : afterId,
+                limit == null ? TransactionService.DEFAULT_PAGE_SIZE : limit);
+        return new ResponseEntity<>(transactions, HttpStatus.OK);
+    }
+
+    /**
+     * Stream all transactions ordered by id as newline-delimited JSON (Accept: application/x-ndjson).
+     *
+     * @return Response body that writes one transaction per line
+     */
+    @GetMapping(value = "/history", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamHistory(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = transactionService.streamTransactionHistory(afterId);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     /**
@@ -74,4 +125,39 @@ public class TransactionController {
         List<Transaction> transactions = transactionService.getTransactionHistory(number);
         return new ResponseEntity<>(transactions, HttpStatus.OK);
     }
+
+    /**
+     * Replay the stored transactions with the given thresholds and compare the new decisions with the stored results
+     * and feedback. Thresholds are passed as query parameters, unset ones keep the values of the application.
+     *
+     * @return Report of the changed decisions
+     */
+    @PostMapping("/backtest")
+    public ResponseEntity<?> backtestHistory(BacktestRequest request) {
+        BacktestReport report = backtestService.replayHistory(request);
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
+
+    /**
+     * Replay an uploaded export of the history (newline-delimited JSON as returned by GET /history) instead of the
+     * stored transactions.
+     *
+     * @return Report of the changed decisions
+     */
+    @PostMapping(value = "/backtest", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<?> backtestExport(BacktestRequest request, InputStream body) {
+        BacktestReport report = backtestService.replayExport(body, request);
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
+
+    /**
+     * Compare the results of the candidate heuristics of the shadow mode with the production results.
+     *
+     * @return Counts by production and shadow result and the latest disagreements
+     */
+    @GetMapping("/shadow")
+    public ResponseEntity<?> getShadowReport() {
+        ShadowReport report = shadowEvaluator.getReport();
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
 }
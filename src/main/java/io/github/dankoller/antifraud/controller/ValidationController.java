@@ -2,13 +2,20 @@ package io.github.dankoller.antifraud.controller;
 
 import io.github.dankoller.antifraud.entity.Card;
 import io.github.dankoller.antifraud.entity.IPAddress;
+import io.github.dankoller.antifraud.service.TransactionService;
 import io.github.dankoller.antifraud.service.ValidationService;
+import io.github.dankoller.antifraud.response.ImportSummary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,9 +34,9 @@ public class ValidationController {
     private ValidationService validationService;
 
     /**
-     * Save suspicious IP addresses to prevent them from being used in future transactions.
+     * Save suspicious IP addresses or CIDR ranges to prevent them from being used in future transactions.
      *
-     * @param ipAsJson JSON string containing the IP address
+     * @param ipAsJson JSON string containing the IP address or CIDR range
      * @return ResponseEntity containing the IP address
      */
     @PostMapping("/suspicious-ip")
@@ -41,13 +48,66 @@ public class ValidationController {
     }
 
     /**
-     * Return a list of all currently suspicious (and therefore blocked) IP addresses.
+     * Import a list of suspicious IP addresses or CIDR ranges as NDJSON or CSV.
      *
-     * @return List of blocked IPAddress objects
+     * @param body        The raw request body, read while it arrives
+     * @param contentType The media type of the body
+     * @return ResponseEntity containing the number of accepted, duplicate and rejected entries
+     */
+    @PostMapping(value = "/suspicious-ip/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    public ResponseEntity<?> importSuspiciousIPs(InputStream body,
+                                                 @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        ImportSummary summary = validationService.importSuspiciousIPs(body, contentType);
+
+        return new ResponseEntity<>(summary, HttpStatus.OK);
+    }
+
+    /**
+     * Return the currently suspicious (and therefore blocked) IP addresses ordered by id. If afterId or limit is
+     * given, only one page is returned; pass the id of the last entry as afterId to get the next page.
+     *
+     * @return List of all or of at most limit blocked IPAddress objects
      */
     @GetMapping("/suspicious-ip")
-    public ResponseEntity<?> getSuspiciousIPs() {
-        return new ResponseEntity<>(validationService.getSuspiciousIPs(), HttpStatus.OK);
+    public ResponseEntity<?> getSuspiciousIPs(@RequestParam(required = false) Long afterId,
+                                              @RequestParam(required = false) Integer limit) {
+        List<IPAddress> ipAddresses = afterId == null && limit == null
+                ? validationService.getSuspiciousIPs()
+                : validationService.getSuspiciousIPs(afterId == null ? 0 : afterId,
+                limit == null ? TransactionService.DEFAULT_PAGE_SIZE : limit);
+        return new ResponseEntity<>(ipAddresses, HttpStatus.OK);
+    }
+
+    /**
+     * Stream all suspicious IP addresses ordered by id as newline-delimited JSON (Accept: application/x-ndjson).
+     *
+     * @return Response body that writes one entry per line
+     */
+    @GetMapping(value = "/suspicious-ip", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamSuspiciousIPs(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = validationService.streamSuspiciousIPs(afterId, false);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Stream all suspicious IP addresses ordered by id as CSV (Accept: text/csv).
+     *
+     * @return Response body that writes a header and one entry per line
+     */
+    @GetMapping(value = "/suspicious-ip", produces = "text/csv")
+    public ResponseEntity<StreamingResponseBody> exportSuspiciousIPs(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = validationService.streamSuspiciousIPs(afterId, true);
+        return ResponseEntity.ok().contentType(ValidationService.TEXT_CSV).body(body);
+    }
+
+    /**
+     * Return the number of blocked IP addresses and ranges.
+     *
+     * @return ResponseEntity containing the count
+     */
+    @GetMapping("/suspicious-ip/count")
+    public ResponseEntity<?> countSuspiciousIPs() {
+        return new ResponseEntity<>(Map.of("count", validationService.countSuspiciousIPs()), HttpStatus.OK);
     }
 
     /**
@@ -63,6 +123,20 @@ public class ValidationController {
         return new ResponseEntity<>(Map.of("status", status), HttpStatus.OK);
     }
 
+    /**
+     * Remove a banned CIDR range from the list of suspicious IP addresses.
+     *
+     * @param ip           The network address of the range
+     * @param prefixLength The prefix length of the range
+     * @return ResponseEntity containing the range
+     */
+    @DeleteMapping("/suspicious-ip/{ip}/{prefixLength}")
+    public ResponseEntity<?> removeSuspiciousRange(@PathVariable String ip, @PathVariable String prefixLength) {
+        String status = validationService.deleteSuspiciousIP(ip + "/" + prefixLength);
+
+        return new ResponseEntity<>(Map.of("status", status), HttpStatus.OK);
+    }
+
     /**
      * Save suspicious cards to prevent them from being used in future transactions.
      *
@@ -78,13 +152,66 @@ public class ValidationController {
     }
 
     /**
-     * Return a list of all currently banned cards.
+     * Import a list of stolen card numbers as NDJSON or CSV.
+     *
+     * @param body        The raw request body, read while it arrives
+     * @param contentType The media type of the body
+     * @return ResponseEntity containing the number of accepted, duplicate and rejected entries
+     */
+    @PostMapping(value = "/stolencard/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    public ResponseEntity<?> importStolenCards(InputStream body,
+                                               @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        ImportSummary summary = validationService.importStolenCards(body, contentType);
+
+        return new ResponseEntity<>(summary, HttpStatus.OK);
+    }
+
+    /**
+     * Return the currently banned cards ordered by id. If afterId or limit is given, only one page is returned; pass
+     * the id of the last card as afterId to get the next page.
      *
-     * @return List of banned Card objects
+     * @return List of all or of at most limit banned Card objects
      */
     @GetMapping("/stolencard")
-    public ResponseEntity<?> getStolenCards() {
-        return new ResponseEntity<>(validationService.getStolenCards(), HttpStatus.OK);
+    public ResponseEntity<?> getStolenCards(@RequestParam(required = false) Long afterId,
+                                            @RequestParam(required = false) Integer limit) {
+        List<Card> cards = afterId == null && limit == null
+                ? validationService.getStolenCards()
+                : validationService.getStolenCards(afterId == null ? 0 : afterId,
+                limit == null ? TransactionService.DEFAULT_PAGE_SIZE : limit);
+        return new ResponseEntity<>(cards, HttpStatus.OK);
+    }
+
+    /**
+     * Stream all banned cards ordered by id as newline-delimited JSON (Accept: application/x-ndjson).
+     *
+     * @return Response body that writes one card per line
+     */
+    @GetMapping(value = "/stolencard", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStolenCards(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = validationService.streamStolenCards(afterId, false);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Stream all banned cards ordered by id as CSV (Accept: text/csv).
+     *
+     * @return Response body that writes a header and one card per line
+     */
+    @GetMapping(value = "/stolencard", produces = "text/csv")
+    public ResponseEntity<StreamingResponseBody> exportStolenCards(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = validationService.streamStolenCards(afterId, true);
+        return ResponseEntity.ok().contentType(ValidationService.TEXT_CSV).body(body);
+    }
+
+    /**
+     * Return the number of banned cards.
+     *
+     * @return ResponseEntity containing the count
+     */
+    @GetMapping("/stolencard/count")
+    public ResponseEntity<?> countStolenCards() {
+        return new ResponseEntity<>(Map.of("count", validationService.countStolenCards()), HttpStatus.OK);
     }
 
     /**
@@ -1,6 +1,8 @@
 package io.github.dankoller.antifraud.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.github.dankoller.antifraud.util.CardValidator;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -21,6 +23,12 @@ public class Card {
     @Column
     private String number;
 
+    // Numeric copy of the card number, lookups use this narrow index instead of comparing strings
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @Column(name = "number_key")
+    private Long numberKey;
+
     @JsonIgnore
     private boolean isLocked;
 
@@ -30,8 +38,20 @@ public class Card {
     @JsonIgnore
     private int manualLimit = 1500;
 
+    // Checked and incremented on every update, so concurrent updates of a card fail instead of overwriting each other
+    @JsonIgnore
+    @Version
+    @Setter(AccessLevel.NONE)
+    private Long version;
+
     public Card(String number, boolean isLocked) {
-        this.number = number;
+        setNumber(number);
         this.isLocked = isLocked;
     }
+
+    public void setNumber(String number) {
+        this.number = number;
+        long key = CardValidator.toKey(number);
+        this.numberKey = key == CardValidator.INVALID ? null : key;
+    }
 }
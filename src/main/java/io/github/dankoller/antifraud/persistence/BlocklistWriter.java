@@ -0,0 +1,149 @@
+package io.github.dankoller.antifraud.persistence;
+
+import io.github.dankoller.antifraud.entity.Card;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes blocklist entries with plain JDBC batches instead of one entity at a time, for imports of large lists. Ids
+ * are reserved as one block from the same table Hibernate uses, so the rows fit in with the ones saved through the
+ * repositories. Callers provide the surrounding database transaction.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Component
+@SuppressWarnings("unused")
+public class BlocklistWriter {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate sequenceTransaction;
+
+    @PostConstruct
+    public void init() {
+        // The sequence row is locked until commit, don't hold it for the whole import batch
+        sequenceTransaction = new TransactionTemplate(transactionManager);
+        sequenceTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Returns the cards with the given numeric keys that already exist.
+     *
+     * @param numberKeys The numeric card keys
+     * @return Map of the numeric key to the lock status of every existing card
+     */
+    public Map<Long, Boolean> findCards(Collection<Long> numberKeys) {
+        Map<Long, Boolean> cards = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT number_key, is_locked FROM card WHERE number_key IN (:keys)",
+                new MapSqlParameterSource("keys", numberKeys),
+                row -> {
+                    cards.put(row.getLong(1), row.getBoolean(2));
+                });
+        return cards;
+    }
+
+    /**
+     * Inserts new cards that are flagged as stolen right away, with the default limits of a new card.
+     *
+     * @param numbers The card numbers by numeric key
+     */
+    public void insertStolenCards(Map<Long, String> numbers) {
+        if (numbers.isEmpty()) return;
+
+        Card defaults = new Card();
+        long id = reserveIds(numbers.size());
+        List<Object[]> rows = new ArrayList<>(numbers.size());
+        for (Map.Entry<Long, String> entry : numbers.entrySet()) {
+            rows.add(new Object[]{id++, defaults.getAllowedLimit(), true, defaults.getManualLimit(),
+                    entry.getValue(), entry.getKey()});
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO card (id, allowed_limit, is_locked, manual_limit, number, number_key, "
+                + "version) VALUES (?, ?, ?, ?, ?, ?, 0)", rows);
+    }
+
+    /**
+     * Flags existing cards as stolen. The version is incremented, so feedback that read a card before fails and is
+     * retried instead of writing the old lock status back.
+     *
+     * @param numberKeys The numeric keys of the cards
+     */
+    public void lockCards(Collection<Long> numberKeys) {
+        if (numberKeys.isEmpty()) return;
+
+        List<Object[]> rows = new ArrayList<>(numberKeys.size());
+        for (long numberKey : numberKeys) {
+            rows.add(new Object[]{numberKey});
+        }
+
+        jdbcTemplate.batchUpdate("UPDATE card SET is_locked = TRUE, version = version + 1 WHERE number_key = ?", rows);
+    }
+
+    /**
+     * Returns the IP addresses and ranges that are already flagged as suspicious.
+     *
+     * @param ips The IP addresses or CIDR ranges
+     * @return The ones that exist
+     */
+    public Set<String> findSuspiciousIPs(Collection<String> ips) {
+        return new HashSet<>(namedParameterJdbcTemplate.queryForList("SELECT ip FROM ipaddress WHERE ip IN (:ips)",
+                new MapSqlParameterSource("ips", ips), String.class));
+    }
+
+    /**
+     * Inserts new suspicious IP addresses or ranges.
+     *
+     * @param ips The IP addresses or CIDR ranges
+     */
+    public void insertSuspiciousIPs(Collection<String> ips) {
+        if (ips.isEmpty()) return;
+
+        long id = reserveIds(ips.size());
+        List<Object[]> rows = new ArrayList<>(ips.size());
+        for (String ip : ips) {
+            rows.add(new Object[]{id++, ip});
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO ipaddress (id, ip) VALUES (?, ?)", rows);
+    }
+
+    /**
+     * Helper method that reserves a block of ids from the Hibernate sequence table. Hibernate reads the next value
+     * with a row lock as well and only hands out ids at or above it, so the block can't be handed out twice.
+     *
+     * @param count Number of ids to reserve
+     * @return The first id of the block
+     */
+    private long reserveIds(int count) {
+        Long first = sequenceTransaction.execute(status -> {
+            Long next = jdbcTemplate.queryForObject("SELECT next_val FROM hibernate_sequence FOR UPDATE", Long.class);
+            if (next == null) throw new IllegalStateException("hibernate_sequence is empty");
+
+            jdbcTemplate.update("UPDATE hibernate_sequence SET next_val = ?", next + count);
+            return next;
+        });
+        return Objects.requireNonNull(first);
+    }
+}
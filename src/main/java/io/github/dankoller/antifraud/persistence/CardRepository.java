@@ -1,18 +1,52 @@
 package io.github.dankoller.antifraud.persistence;
 
 import io.github.dankoller.antifraud.entity.Card;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 // Repository for stolen card entities
 @Repository
 public interface CardRepository extends JpaRepository<Card, Long> {
     Optional<Card> findByNumber(String ip);
 
+    Optional<Card> findByNumberKey(long numberKey);
+
+    // The version is incremented on commit even if no column changed, so every update conflicts with concurrent ones
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    Optional<Card> findForUpdateByNumberKey(long numberKey);
+
+    List<Card> findAllByNumberKeyIn(Collection<Long> numberKeys);
+
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    List<Card> findAllForUpdateByNumberKeyIn(Collection<Long> numberKeys);
+
     List<Card> findAllByIsLockedTrue();
 
-    boolean existsByNumberAndIsLockedTrue(String number);
+    List<Card> findAllByIsLockedTrueOrderByIdAsc();
+
+    // One page of the stolen cards, seeks past the last seen id instead of counting an offset
+    List<Card> findAllByIsLockedTrueAndIdGreaterThanOrderByIdAsc(long afterId, Pageable pageable);
+
+    // Streams the stolen cards row by row, a fetch size of Integer.MIN_VALUE makes the MySQL driver stream the result
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("SELECT c FROM Card c WHERE c.isLocked = true AND c.id > :afterId ORDER BY c.id")
+    Stream<Card> streamAllByIsLockedTrueAndIdGreaterThan(@Param("afterId") long afterId);
 }
@@ -1,13 +1,34 @@
 package io.github.dankoller.antifraud.persistence;
 
 import io.github.dankoller.antifraud.entity.IPAddress;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 // Repository for suspicious IP entities
 @Repository
 public interface SuspiciousIPRepository extends JpaRepository<IPAddress, Long> {
     Optional<IPAddress> findByIp(String ip);
+
+    // One page of the blocklist, seeks past the last seen id instead of counting an offset
+    List<IPAddress> findAllByIdGreaterThanOrderByIdAsc(long afterId, Pageable pageable);
+
+    // Streams the blocklist row by row, a fetch size of Integer.MIN_VALUE makes the MySQL driver stream the result
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("SELECT a FROM IPAddress a WHERE a.id > :afterId ORDER BY a.id")
+    Stream<IPAddress> streamAllByIdGreaterThan(@Param("afterId") long afterId);
 }
@@ -1,16 +1,38 @@
 package io.github.dankoller.antifraud.persistence;
 
 import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 // Repository for transaction entities
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
-    List<Transaction> findAllByDateBetweenAndNumber(LocalDateTime start, LocalDateTime end, String number);
+    List<Transaction> findAllByDateBetweenAndNumberKey(LocalDateTime start, LocalDateTime end, long numberKey);
+
+    List<Transaction> findAllByNumberKey(long numberKey);
+
+    List<Transaction> findAllByNumberKeyAndDateGreaterThanEqual(long numberKey, LocalDateTime start);
+
+    // One page of the history, seeks past the last seen id instead of counting an offset
+    List<Transaction> findAllByIdGreaterThanOrderByIdAsc(long afterId, Pageable pageable);
 
-    List<Transaction> findAllByNumber(String number);
+    // Streams the history row by row, a fetch size of Integer.MIN_VALUE makes the MySQL driver stream the result set
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("SELECT t FROM Transaction t WHERE t.id > :afterId ORDER BY t.id")
+    Stream<Transaction> streamAllByIdGreaterThan(@Param("afterId") long afterId);
 }
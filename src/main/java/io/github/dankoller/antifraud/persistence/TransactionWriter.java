@@ -0,0 +1,290 @@
+package io.github.dankoller.antifraud.persistence;
+
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores scored transactions. By default every transaction is saved on the calling thread. In write-behind mode the
+ * transactions are put into a bounded queue instead and a background thread saves them in batches, so the merchant
+ * doesn't wait for the database. If the queue stays full, the caller saves the transaction itself (backpressure).
+ * Batches are retried for as long as the database is unreachable; a batch that keeps failing for other reasons is
+ * stored row by row, and rows that still fail are logged and dropped. The queue is drained when the application shuts
+ * down.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("unused")
+public class TransactionWriter {
+
+    // Attempts to store a batch as a whole before its transactions are stored one by one
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    @Value("${antifraud.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${antifraud.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${antifraud.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${antifraud.write-behind.offer-timeout-ms:50}")
+    private long offerTimeoutMs;
+
+    @Value("${antifraud.write-behind.flush-interval-ms:10}")
+    private long flushIntervalMs;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<Transaction> queue;
+    private volatile List<Transaction> inFlight = Collections.emptyList();
+    private volatile boolean running;
+    private Thread writerThread;
+
+    private Timer flushTimer;
+    private DistributionSummary flushSize;
+    private Counter callerWrites;
+    private Counter droppedWrites;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        Gauge.builder("antifraud.write_behind.queue.depth", queue, BlockingQueue::size)
+                .description("Transactions waiting to be stored")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("antifraud.write_behind.flush")
+                .description("Time to store one batch of transactions")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        flushSize = DistributionSummary.builder("antifraud.write_behind.flush.size")
+                .description("Transactions stored per batch")
+                .register(meterRegistry);
+        callerWrites = Counter.builder("antifraud.write_behind.caller_writes")
+                .description("Transactions stored on the request thread because the queue was full")
+                .register(meterRegistry);
+        droppedWrites = Counter.builder("antifraud.write_behind.dropped")
+                .description("Transactions that could not be stored and were dropped")
+                .register(meterRegistry);
+
+        running = true;
+        writerThread = new Thread(this::run, "transaction-writer");
+        writerThread.start();
+    }
+
+    /**
+     * Stores a transaction, either right away or through the write-behind queue.
+     *
+     * @param transaction Transaction to be stored
+     */
+    public void write(Transaction transaction) {
+        if (!enabled) {
+            transactionRepository.save(transaction);
+            return;
+        }
+
+        enqueue(transaction);
+    }
+
+    /**
+     * Stores several transactions, either right away with a single saveAll or through the write-behind queue.
+     *
+     * @param transactions Transactions to be stored
+     */
+    public void writeAll(List<Transaction> transactions) {
+        if (!enabled) {
+            transactionRepository.saveAll(transactions);
+            return;
+        }
+
+        transactions.forEach(this::enqueue);
+    }
+
+    /**
+     * Returns the transactions of a card that were accepted but are not stored yet, so in-memory state that is
+     * rebuilt from the database doesn't miss them. Read this before querying the database: a transaction that leaves
+     * the queue in between is found in the database afterwards.
+     *
+     * @param numberKey Numeric card key of the transactions
+     * @return Transactions of the card that are still waiting to be stored
+     */
+    public synchronized List<Transaction> pending(long numberKey) {
+        if (!enabled) return Collections.emptyList();
+
+        List<Transaction> pending = new ArrayList<>();
+        for (Transaction transaction : inFlight) {
+            if (transaction.getNumberKey() == numberKey) pending.add(transaction);
+        }
+        for (Transaction transaction : queue) {
+            if (transaction.getNumberKey() == numberKey) pending.add(transaction);
+        }
+
+        return pending;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stops the writer thread after all queued transactions are stored.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) return;
+
+        running = false;
+        writerThread.join();
+    }
+
+    private void enqueue(Transaction transaction) {
+        try {
+            if (queue.offer(transaction, offerTimeoutMs, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The writer can't keep up, slow the caller down by letting it store the transaction itself
+        callerWrites.increment();
+        transactionRepository.save(transaction);
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            List<Transaction> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(batchSize);
+                queue.drainTo(batch, batchSize);
+                inFlight = batch;
+            }
+
+            try {
+                if (batch.isEmpty()) {
+                    Thread.sleep(flushIntervalMs);
+                } else {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+
+            synchronized (this) {
+                inFlight = Collections.emptyList();
+            }
+        }
+    }
+
+    private void flush(List<Transaction> batch) throws InterruptedException {
+        long backoffMs = INITIAL_BACKOFF_MS;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                flushTimer.record(() -> transactionRepository.saveAll(batch));
+                flushSize.record(batch.size());
+                return;
+            } catch (RuntimeException e) {
+                clearIds(batch);
+
+                // Keep the batch while the database is unreachable, the queue applies backpressure meanwhile
+                if (attempt >= MAX_BATCH_ATTEMPTS && (!isTransient(e) || !running)) {
+                    log.error("Could not store {} transactions, storing them one by one", batch.size(), e);
+                    saveOneByOne(batch);
+                    return;
+                }
+
+                log.error("Could not store {} transactions, retrying in {} ms", batch.size(), backoffMs, e);
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * Helper method that stores the transactions of a failed batch separately, so a single bad row doesn't block the
+     * others. Rows that fail for any other reason than a lost connection are logged and dropped.
+     */
+    private void saveOneByOne(List<Transaction> batch) throws InterruptedException {
+        for (Transaction transaction : batch) {
+            long backoffMs = INITIAL_BACKOFF_MS;
+
+            while (true) {
+                try {
+                    transactionRepository.save(transaction);
+                    flushSize.record(1);
+                    break;
+                } catch (RuntimeException e) {
+                    transaction.setId(null);
+
+                    if (!isTransient(e) || !running) {
+                        droppedWrites.increment();
+                        log.error("Could not store transaction of card {} at {}, dropping it",
+                                transaction.getNumberKey(), transaction.getDate(), e);
+                        break;
+                    }
+
+                    log.error("Could not store transaction, retrying in {} ms", backoffMs, e);
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that resets the ids a failed attempt assigned. The transactions were never stored, so the next
+     * attempt has to insert them again instead of merging them by an id that doesn't exist.
+     */
+    private static void clearIds(List<Transaction> batch) {
+        batch.forEach(transaction -> transaction.setId(null));
+    }
+
+    /**
+     * Checks if a failure is caused by the connection to the database rather than by the data, so retrying the same
+     * rows later can succeed.
+     */
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
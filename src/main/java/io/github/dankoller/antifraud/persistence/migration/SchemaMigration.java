@@ -0,0 +1,40 @@
+package io.github.dankoller.antifraud.persistence.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Base class of migrations that have to work on databases in different states. Before the migrations existed, the
+ * schema was maintained by ddl-auto=update, so a column or index may or may not be there already. The helpers check
+ * the catalog first, which MySQL can't do in plain DDL (no IF NOT EXISTS for columns and indexes).
+ */
+abstract class SchemaMigration extends BaseJavaMigration {
+
+    static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, table, column)) {
+            return columns.next();
+        }
+    }
+
+    static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+            while (indexes.next()) {
+                if (index.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) return true;
+            }
+            return false;
+        }
+    }
+
+    static int execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.dankoller.antifraud.persistence.migration;
+
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+
+/**
+ * Adds the numeric card key (see {@code CardValidator.toKey}) to cards and transactions and fills it for existing
+ * rows. Only numbers consisting of 16 digits get a key, like in the application.
+ */
+@SuppressWarnings("unused")
+public class V2__AddCardNumberKeys extends SchemaMigration {
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        for (String table : new String[]{"card", "transaction"}) {
+            if (!columnExists(connection, table, "number_key")) {
+                execute(connection, "ALTER TABLE `" + table + "` ADD COLUMN number_key BIGINT");
+            }
+            execute(connection, "UPDATE `" + table + "` SET number_key = CAST(number AS UNSIGNED) "
+                    + "WHERE number_key IS NULL AND number REGEXP '^[0-9]{16}$'");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.dankoller.antifraud.persistence.migration;
+
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+
+/**
+ * Indexes every column the application looks rows up by. Card numbers, IP addresses and usernames become unique, so
+ * concurrent inserts of the same value can't create duplicates anymore. Duplicate cards and IP addresses left behind
+ * by such races are merged first; duplicate usernames are not touched and make the migration fail, because deleting a
+ * user account has to be decided by an administrator.
+ */
+@SuppressWarnings("unused")
+public class V3__AddLookupIndexes extends SchemaMigration {
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        // Keep the oldest card of every number, it stays locked if any of its duplicates was locked
+        execute(connection, "UPDATE card c JOIN (SELECT number, MIN(id) AS id, MAX(is_locked + 0) AS is_locked "
+                + "FROM card GROUP BY number HAVING COUNT(*) > 1) d ON c.id = d.id SET c.is_locked = d.is_locked");
+        execute(connection, "DELETE c FROM card c JOIN card o ON c.number = o.number AND c.id > o.id");
+        execute(connection, "DELETE a FROM ipaddress a JOIN ipaddress o ON a.ip = o.ip AND a.id > o.id");
+
+        createIndex(connection, "card", "uq_card_number", true, "number");
+        createIndex(connection, "card", "idx_card_number_key", false, "number_key");
+        createIndex(connection, "ipaddress", "uq_ipaddress_ip", true, "ip");
+        createIndex(connection, "user", "uq_user_username", true, "username");
+        createIndex(connection, "transaction", "idx_transaction_number_date", false, "number, date");
+        createIndex(connection, "transaction", "idx_transaction_number_key_date", false, "number_key, date");
+    }
+
+    private static void createIndex(Connection connection, String table, String index, boolean unique, String columns)
+            throws Exception {
+        if (indexExists(connection, table, index)) return;
+
+        execute(connection, "CREATE " + (unique ? "UNIQUE " : "") + "INDEX " + index
+                + " ON `" + table + "` (" + columns + ")");
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.dankoller.antifraud.request;
+
+import lombok.Getter;
+import lombok.Setter;
+
+// Thresholds to replay the history with, unset values keep the ones the application uses
+@Getter
+@Setter
+public class BacktestRequest {
+
+    private long afterId;
+
+    private Integer windowMinutes;
+
+    private Integer correlationCount;
+
+    private Integer allowedLimit;
+
+    private Integer manualLimit;
+}
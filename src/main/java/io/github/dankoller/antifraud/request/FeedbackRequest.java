@@ -0,0 +1,13 @@
+package io.github.dankoller.antifraud.request;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class FeedbackRequest {
+
+    private Long transactionId;
+
+    private String feedback;
+}
@@ -0,0 +1,29 @@
+package io.github.dankoller.antifraud.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+// Decisions of a backtest compared with the stored results and the feedback of the support team
+@AllArgsConstructor
+@Getter
+public class BacktestReport {
+
+    private final long transactions;
+    private final long skipped;
+    private final long changed;
+
+    // Stored result -> replayed result -> number of transactions
+    private final Map<String, Map<String, Long>> decisions;
+
+    private final long withFeedback;
+    private final long storedMatchingFeedback;
+    private final long replayedMatchingFeedback;
+
+    // Ids of the first transactions whose result changed
+    private final List<Long> changedSample;
+
+    private final long durationMillis;
+}
@@ -0,0 +1,27 @@
+package io.github.dankoller.antifraud.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+// Outcome of a single feedback of a batch, with the updated transaction or the reason it was rejected
+@AllArgsConstructor
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FeedbackResult {
+
+    private final Long transactionId;
+    private final int status;
+    private final String message;
+    private final Transaction transaction;
+
+    public static FeedbackResult success(Transaction transaction) {
+        return new FeedbackResult(transaction.getId(), HttpStatus.OK.value(), null, transaction);
+    }
+
+    public static FeedbackResult failure(Long transactionId, HttpStatus status, String message) {
+        return new FeedbackResult(transactionId, status.value(), message, null);
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.dankoller.antifraud.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Outcome of a blocklist import: new entries, entries that were listed already or repeated, and invalid lines
+@AllArgsConstructor
+@Getter
+public class ImportSummary {
+
+    private final long accepted;
+    private final long duplicates;
+    private final long rejected;
+}
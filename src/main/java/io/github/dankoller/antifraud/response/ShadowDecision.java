@@ -0,0 +1,19 @@
+package io.github.dankoller.antifraud.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// A transaction whose result from the candidate heuristics differs from the production result
+@AllArgsConstructor
+@Getter
+public class ShadowDecision {
+
+    // Null while the transaction waits in the write-behind queue
+    private final Long transactionId;
+
+    private final String result;
+    private final String info;
+
+    private final String shadowResult;
+    private final String shadowInfo;
+}
@@ -0,0 +1,26 @@
+package io.github.dankoller.antifraud.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+// Decisions of the candidate heuristics compared with the production results since the application started
+@AllArgsConstructor
+@Getter
+public class ShadowReport {
+
+    private final boolean enabled;
+    private final int queued;
+    private final long dropped;
+    private final long evaluated;
+    private final long disagreements;
+    private final double disagreementRate;
+
+    // Production result -> shadow result -> number of transactions
+    private final Map<String, Map<String, Long>> decisions;
+
+    // Latest disagreements, newest first
+    private final List<ShadowDecision> recent;
+}
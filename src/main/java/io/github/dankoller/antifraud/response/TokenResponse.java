@@ -0,0 +1,14 @@
+package io.github.dankoller.antifraud.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public class TokenResponse {
+
+    private final UserDataResponse user;
+    private final String token;
+    private final String tokenType;
+    private final long expiresAt;
+}
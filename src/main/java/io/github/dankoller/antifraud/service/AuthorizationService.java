@@ -1,5 +1,7 @@
 package io.github.dankoller.antifraud.service;
 
+import io.github.dankoller.antifraud.auth.TokenService;
+import io.github.dankoller.antifraud.cache.CredentialCache;
 import io.github.dankoller.antifraud.entity.Role;
 import io.github.dankoller.antifraud.entity.user.User;
 import io.github.dankoller.antifraud.persistence.UserRepository;
@@ -17,6 +19,12 @@ public class AuthorizationService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private TokenService tokenService;
+
     /**
      * Update a user's role according to the given role.
      *
@@ -41,6 +49,9 @@ public class AuthorizationService {
 
         // Save updated user to database
         userRepository.save(user);
+        // Issued tokens carry the old role
+        credentialCache.invalidate(username);
+        tokenService.revoke(username);
 
         return user;
     }
@@ -62,10 +73,14 @@ public class AuthorizationService {
         if (access.equals("LOCK")) {
             user.setAccountNonLocked(false);
             userRepository.save(user);
+            credentialCache.invalidate(username);
+            tokenService.revoke(username);
             return Map.of("status", "User " + user.getUsername() + " locked!");
         } else if (access.equals("UNLOCK")) {
             user.setAccountNonLocked(true);
             userRepository.save(user);
+            credentialCache.invalidate(username);
+            tokenService.revoke(username);
             return Map.of("status", "User " + user.getUsername() + " unlocked!");
         } else {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
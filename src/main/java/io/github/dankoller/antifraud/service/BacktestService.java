@@ -0,0 +1,396 @@
+package io.github.dankoller.antifraud.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.dankoller.antifraud.cache.CardState;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.ReplayWindows;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.request.BacktestRequest;
+import io.github.dankoller.antifraud.response.BacktestReport;
+import io.github.dankoller.antifraud.util.CorrelationRule;
+import io.github.dankoller.antifraud.util.EvaluationContext;
+import io.github.dankoller.antifraud.util.Rule;
+import io.github.dankoller.antifraud.util.RuleSet;
+import io.github.dankoller.antifraud.util.RuleThresholds;
+import io.github.dankoller.antifraud.util.TransactionValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * Replays stored transactions through the heuristics, optionally with different thresholds, and compares the new
+ * decisions with the stored results and the feedback of the support team. Transactions are read in id order in
+ * chunks. Every chunk is split by card into partitions that are replayed in parallel on a fork-join pool, while the
+ * next chunk is read. A partition keeps the correlation windows, velocity counts and limits of its cards, so the state
+ * of a card is rebuilt from its replayed transactions exactly as it evolved live, and nothing is loaded from the
+ * database besides the transactions themselves.
+ * <p>
+ * Stolen cards and suspicious IP addresses are checked against the current blocklists. Feedback changes the limits
+ * of a card right after the transaction it was given for.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Service
+@SuppressWarnings("unused")
+public class BacktestService {
+
+    private static final int CHUNK_SIZE = 50_000;
+    private static final int SAMPLE_SIZE = 100;
+
+    // Active cards are never evicted from the velocity counts of a partition, only cards idle for a day are dropped
+    private static final int VELOCITY_MAX_CARDS = Integer.MAX_VALUE;
+
+    @Value("${antifraud.backtest.parallelism:0}")
+    private int parallelism;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionValidator transactionValidator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        if (parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Replays the stored transaction history. The history is streamed from the database, every row is detached as
+     * soon as it was read.
+     *
+     * @param request The thresholds to replay with
+     * @return The report of the backtest
+     */
+    public BacktestReport replayHistory(BacktestRequest request) {
+        Options options = Options.of(request);
+
+        return readOnlyTransaction.execute(status -> {
+            try (Stream<Transaction> transactions = transactionRepository.streamAllByIdGreaterThan(
+                    request.getAfterId())) {
+                Iterator<Transaction> rows = transactions.iterator();
+                return replay(new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rows.hasNext();
+                    }
+
+                    @Override
+                    public Transaction next() {
+                        Transaction transaction = rows.next();
+                        entityManager.detach(transaction);
+                        return transaction;
+                    }
+                }, options);
+            }
+        });
+    }
+
+    /**
+     * Replays transactions from an export of the history (newline-delimited JSON as written by GET /history). The
+     * export is parsed while it is read, lines with missing or invalid values are skipped.
+     *
+     * @param body    The export, ordered by transaction id
+     * @param request The thresholds to replay with
+     * @return The report of the backtest
+     */
+    public BacktestReport replayExport(InputStream body, BacktestRequest request) {
+        Options options = Options.of(request);
+
+        try (MappingIterator<JsonNode> nodes = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+            return replay(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public Transaction next() {
+                    Transaction transaction = parse(nodes.next());
+                    return transaction != null && transaction.getId() > request.getAfterId() ? transaction : null;
+                }
+            }, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Export is not valid NDJSON");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method that reads the transactions chunk by chunk and replays every chunk on the pool while the next
+     * one is read. A chunk is only handed to the partitions once the previous one is done, so every partition sees
+     * the transactions of its cards in id order.
+     *
+     * @param transactions The transactions in id order, null elements are counted as skipped
+     * @param options      The thresholds to replay with
+     * @return The report of the backtest
+     */
+    private BacktestReport replay(Iterator<Transaction> transactions, Options options) {
+        long start = System.nanoTime();
+        int partitionCount = parallelism * 4;
+        Partition[] partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(options);
+        }
+
+        long skipped = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<?> running = null;
+            while (transactions.hasNext()) {
+                List<List<Transaction>> chunk = new ArrayList<>(partitionCount);
+                for (int i = 0; i < partitionCount; i++) {
+                    chunk.add(new ArrayList<>());
+                }
+
+                for (int read = 0; read < CHUNK_SIZE && transactions.hasNext(); read++) {
+                    Transaction transaction = transactions.next();
+                    if (transaction == null || isNotReplayable(transaction)) {
+                        skipped++;
+                        continue;
+                    }
+                    chunk.get(partitionOf(transaction.getNumberKey(), partitionCount)).add(transaction);
+                }
+
+                if (running != null) running.join();
+
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(partitionCount);
+                for (int i = 0; i < partitionCount; i++) {
+                    if (chunk.get(i).isEmpty()) continue;
+                    Partition partition = partitions[i];
+                    List<Transaction> part = chunk.get(i);
+                    tasks.add(ForkJoinTask.adapt(() -> part.forEach(partition::replay)));
+                }
+                running = pool.submit(() -> ForkJoinTask.invokeAll(tasks));
+            }
+            if (running != null) running.join();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return report(partitions, skipped, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static BacktestReport report(Partition[] partitions, long skipped, long durationMillis) {
+        TransactionResult[] results = TransactionResult.values();
+        long[][] decisions = new long[results.length][results.length];
+        long transactions = 0;
+        long changed = 0;
+        long withFeedback = 0;
+        long storedMatchingFeedback = 0;
+        long replayedMatchingFeedback = 0;
+        List<Long> changedSample = new ArrayList<>();
+
+        for (Partition partition : partitions) {
+            for (int stored = 0; stored < results.length; stored++) {
+                for (int replayed = 0; replayed < results.length; replayed++) {
+                    decisions[stored][replayed] += partition.decisions[stored][replayed];
+                    transactions += partition.decisions[stored][replayed];
+                    if (stored != replayed) changed += partition.decisions[stored][replayed];
+                }
+            }
+            withFeedback += partition.withFeedback;
+            storedMatchingFeedback += partition.storedMatchingFeedback;
+            replayedMatchingFeedback += partition.replayedMatchingFeedback;
+            changedSample.addAll(partition.changedSample);
+        }
+
+        Map<String, Map<String, Long>> decisionMap = new LinkedHashMap<>();
+        for (TransactionResult stored : results) {
+            Map<String, Long> row = new LinkedHashMap<>();
+            for (TransactionResult replayed : results) {
+                row.put(replayed.name(), decisions[stored.ordinal()][replayed.ordinal()]);
+            }
+            decisionMap.put(stored.name(), row);
+        }
+
+        changedSample.sort(null);
+        return new BacktestReport(transactions, skipped, changed, decisionMap, withFeedback, storedMatchingFeedback,
+                replayedMatchingFeedback, List.copyOf(changedSample.subList(0, Math.min(SAMPLE_SIZE,
+                changedSample.size()))), durationMillis);
+    }
+
+    private static int partitionOf(long numberKey, int partitionCount) {
+        // Card numbers share prefixes, mix all bits before picking a partition
+        long hash = numberKey * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 32) % partitionCount);
+    }
+
+    private static boolean isNotReplayable(Transaction transaction) {
+        return transaction.getNumberKey() == null || transaction.getDate() == null || transaction.getIp() == null
+                || transaction.getRegion() == null || transaction.getAmount() == null;
+    }
+
+    /**
+     * Helper method that reads a transaction of an export.
+     *
+     * @param node One line of the export
+     * @return The transaction or null if a value is missing or invalid
+     */
+    private static Transaction parse(JsonNode node) {
+        try {
+            Transaction transaction = new Transaction();
+            transaction.setId(node.get("transactionId").asLong());
+            transaction.setAmount(node.get("amount").asLong());
+            transaction.setNumber(node.get("number").asText());
+            transaction.setIp(node.get("ip").asText());
+            transaction.setRegion(Region.valueOf(node.get("region").asText()));
+            transaction.setDate(LocalDateTime.parse(node.get("date").asText()));
+            transaction.setResult(TransactionResult.valueOf(node.get("result").asText()));
+
+            String feedback = node.path("feedback").asText("");
+            transaction.setFeedback(feedback.isBlank() ? null : TransactionResult.valueOf(feedback));
+            return transaction;
+        } catch (NullPointerException | IllegalArgumentException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thresholds of a backtest, the values of the application where the request doesn't set them.
+     */
+    private static final class Options {
+        private final Duration window;
+        private final int correlationCount;
+        private final CardState defaultCard;
+
+        private Options(Duration window, int correlationCount, CardState defaultCard) {
+            this.window = window;
+            this.correlationCount = correlationCount;
+            this.defaultCard = defaultCard;
+        }
+
+        private static Options of(BacktestRequest request) {
+            Card card = new Card();
+            if (request.getAllowedLimit() != null) card.setAllowedLimit(request.getAllowedLimit());
+            if (request.getManualLimit() != null) card.setManualLimit(request.getManualLimit());
+
+            Duration window = request.getWindowMinutes() == null
+                    ? CardWindowStore.CORRELATION_WINDOW
+                    : Duration.ofMinutes(request.getWindowMinutes());
+            int correlationCount = request.getCorrelationCount() == null
+                    ? CorrelationRule.MANUAL_COUNT
+                    : request.getCorrelationCount();
+
+            if (request.getAfterId() < 0 || window.isNegative() || window.isZero() || correlationCount < 1
+                    || card.getAllowedLimit() < 0 || card.getManualLimit() < card.getAllowedLimit()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid backtest thresholds");
+            }
+            return new Options(window, correlationCount, CardState.of(card));
+        }
+    }
+
+    /**
+     * Replay state of the cards that fall into one partition. Only one task replays a partition at a time.
+     */
+    private final class Partition {
+        private final Options options;
+        private final ReplayWindows windows;
+        private final VelocityStore velocityStore = new VelocityStore(VELOCITY_MAX_CARDS);
+        private final boolean velocity;
+        private final RuleSet ruleSet;
+
+        // Only cards whose limits were changed by feedback, all others have the default limits
+        private final Map<Long, Card> cards = new HashMap<>();
+
+        private final long[][] decisions = new long[TransactionResult.values().length][TransactionResult.values().length];
+        private long withFeedback;
+        private long storedMatchingFeedback;
+        private long replayedMatchingFeedback;
+        private final List<Long> changedSample = new ArrayList<>();
+
+        private Partition(Options options) {
+            this.options = options;
+            this.windows = new ReplayWindows(options.window);
+
+            RuleThresholds thresholds = transactionValidator.getThresholds()
+                    .withCorrelationCount(options.correlationCount);
+            List<Rule> rules = transactionValidator.createRules(thresholds, windows, this::cardState,
+                    velocityStore::count);
+            this.velocity = thresholds.isVelocity();
+
+            // Short-circuiting doesn't change results, the backtest only compares those
+            this.ruleSet = new RuleSet(rules, true, null);
+        }
+
+        private void replay(Transaction transaction) {
+            TransactionResult replayed = ruleSet.evaluate(EvaluationContext.of(transaction)).getResult();
+            TransactionResult stored = TransactionResult.valueOf(transaction.getResult());
+
+            decisions[stored.ordinal()][replayed.ordinal()]++;
+            if (stored != replayed && changedSample.size() < SAMPLE_SIZE) changedSample.add(transaction.getId());
+
+            windows.record(transaction);
+            if (velocity) velocityStore.record(transaction);
+
+            String feedback = transaction.getFeedback();
+            if (feedback.isBlank()) return;
+
+            withFeedback++;
+            if (stored.name().equals(feedback)) storedMatchingFeedback++;
+            if (replayed.name().equals(feedback)) replayedMatchingFeedback++;
+
+            // Feedback equal to the stored result was rejected live, so it never changed the limits
+            if (!stored.name().equals(feedback)) {
+                Card card = cards.computeIfAbsent(transaction.getNumberKey(), key -> {
+                    Card defaults = new Card();
+                    defaults.setAllowedLimit(options.defaultCard.getAllowedLimit());
+                    defaults.setManualLimit(options.defaultCard.getManualLimit());
+                    return defaults;
+                });
+                TransactionService.changeLimit(card, transaction, feedback);
+            }
+        }
+
+        private CardState cardState(long numberKey) {
+            Card card = cards.get(numberKey);
+            return card == null ? options.defaultCard : CardState.of(card);
+        }
+    }
+}
@@ -1,25 +1,71 @@
 package io.github.dankoller.antifraud.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.VelocityStore;
 import io.github.dankoller.antifraud.entity.Card;
 import io.github.dankoller.antifraud.entity.transaction.Transaction;
 import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
 import io.github.dankoller.antifraud.persistence.CardRepository;
 import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import io.github.dankoller.antifraud.request.FeedbackRequest;
+import io.github.dankoller.antifraud.response.FeedbackResult;
+import io.github.dankoller.antifraud.util.CardLocks;
 import io.github.dankoller.antifraud.util.CardValidator;
 import io.github.dankoller.antifraud.util.IPAddressValidator;
+import io.github.dankoller.antifraud.util.ShadowEvaluator;
 import io.github.dankoller.antifraud.util.TransactionValidator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
 
 @Service
 @SuppressWarnings("unused")
 public class TransactionService {
 
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Attempts to store feedback before giving up on a card that keeps being changed by other nodes
+    private static final int LIMIT_UPDATE_ATTEMPTS = 5;
+
     @Autowired
     private CardRepository cardRepository;
 
@@ -29,6 +75,64 @@ public class TransactionService {
     @Autowired
     private TransactionValidator transactionValidator;
 
+    @Autowired
+    private CardWindowStore cardWindowStore;
+
+    @Autowired
+    private VelocityStore velocityStore;
+
+    @Autowired
+    private TransactionWriter transactionWriter;
+
+    @Autowired
+    private ShadowEvaluator shadowEvaluator;
+
+    @Autowired
+    private CardStateCache cardStateCache;
+
+    @Autowired
+    private CardLocks cardLocks;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate writeTransaction;
+
+    private Timer cardUpsertTimer;
+    private Timer batchCardUpsertTimer;
+    private Timer saveTimer;
+    private Timer batchSaveTimer;
+
+    // Velocity counters are only kept up to date while the production or the shadow heuristics read them
+    private boolean recordVelocity;
+
+    @PostConstruct
+    public void init() {
+        recordVelocity = transactionValidator.getThresholds().isVelocity() || shadowEvaluator.isVelocity();
+
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        writeTransaction = new TransactionTemplate(transactionManager);
+
+        String upsert = "Time to look up or insert the cards of a request";
+        cardUpsertTimer = timer("antifraud.card.upsert", upsert, false);
+        batchCardUpsertTimer = timer("antifraud.card.upsert", upsert, true);
+
+        String save = "Time to store or enqueue the scored transactions of a request";
+        saveTimer = timer("antifraud.transaction.save", save, false);
+        batchSaveTimer = timer("antifraud.transaction.save", save, true);
+    }
+
     /**
      * Processes a transaction by validating card number and ip address.
      *
@@ -36,23 +140,21 @@ public class TransactionService {
      * @return Map with the result and information of the transaction
      */
     public Map<String, String> processTransaction(Transaction transaction) {
-        Long amount = transaction.getAmount();
-        // Check if ip address is valid
-        String ip = IPAddressValidator.isNonValidIp(transaction.getIp()) ? null : transaction.getIp();
-        // Check if card number is valid
-        String cardNumber = CardValidator.isNonValid(transaction.getNumber()) ? null : transaction.getNumber();
-
         // Transferring negative amounts isn't allowed
-        if (amount == null || ip == null || cardNumber == null || amount <= 0 || ip.isEmpty() || cardNumber.isEmpty()) {
+        if (isInvalid(transaction)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid transaction");
         }
 
         // Check if the card already exists in the database
-        saveCardIfNotExists(cardNumber);
+        cardUpsertTimer.record(() -> saveCardIfNotExists(transaction.getNumber(), transaction.getNumberKey()));
 
-        // Verify transaction and save it in the database
+        // Verify transaction and save it in the database (or hand it to the write-behind queue)
         transactionValidator.verifyTransaction(transaction);
-        transactionRepository.save(transaction);
+        ShadowEvaluator.Candidate candidate = shadowEvaluator.capture(transaction);
+        saveTimer.record(() -> transactionWriter.write(transaction));
+        cardWindowStore.record(transaction);
+        if (recordVelocity) velocityStore.record(transaction);
+        shadowEvaluator.submit(candidate);
 
         return Map.of(
                 "result", transaction.getResult(),
@@ -61,18 +163,136 @@ public class TransactionService {
     }
 
     /**
-     * Helper method to save a card in the database if it doesn't exist.
+     * Processes a batch of transactions. The transactions are verified in input order as if they were posted one
+     * after another, but the database work is grouped: the missing cards are inserted in one pass and all
+     * transactions are saved with a single saveAll. Invalid transactions don't fail the batch, they are reported
+     * individually.
+     *
+     * @param transactions Transactions to be processed
+     * @return List with the result and information of every transaction in input order
+     */
+    public List<Map<String, String>> processTransactions(List<Transaction> transactions) {
+        if (transactions == null || transactions.isEmpty() || transactions.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A batch must contain between 1 and " + MAX_BATCH_SIZE + " transactions");
+        }
+
+        List<Transaction> validTransactions = transactions.stream()
+                .filter(transaction -> !isInvalid(transaction))
+                .collect(Collectors.toList());
+
+        // Insert all unknown cards at once
+        Map<Long, String> cardNumbers = validTransactions.stream()
+                .collect(Collectors.toMap(Transaction::getNumberKey, Transaction::getNumber, (first, second) -> first));
+        batchCardUpsertTimer.record(() -> saveCardsIfNotExist(cardNumbers));
+
+        List<Map<String, String>> results = new ArrayList<>(transactions.size());
+        List<ShadowEvaluator.Candidate> candidates = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            if (isInvalid(transaction)) {
+                results.add(Map.of("error", "Invalid transaction"));
+                continue;
+            }
+
+            // Record right away, so later transactions of the same card in this batch see this one
+            transactionValidator.verifyTransaction(transaction);
+            candidates.add(shadowEvaluator.capture(transaction));
+            cardWindowStore.record(transaction);
+            if (recordVelocity) velocityStore.record(transaction);
+
+            results.add(Map.of(
+                    "result", transaction.getResult(),
+                    "info", transaction.getInfo()
+            ));
+        }
+
+        try {
+            batchSaveTimer.record(() -> transactionWriter.writeAll(validTransactions));
+        } catch (RuntimeException e) {
+            // The windows must not contain transactions that were never stored
+            validTransactions.forEach(transaction -> cardWindowStore.invalidate(transaction.getNumberKey()));
+            if (recordVelocity) validTransactions.forEach(velocityStore::remove);
+            throw e;
+        }
+        candidates.forEach(shadowEvaluator::submit);
+
+        return results;
+    }
+
+    private Timer timer(String name, String description, boolean batch) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("batch", String.valueOf(batch))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Helper method to check if a transaction has a valid amount, ip address, card number and date.
+     *
+     * @param transaction The transaction to be checked
+     * @return True if the transaction is invalid, false otherwise
+     */
+    private static boolean isInvalid(Transaction transaction) {
+        if (transaction == null || transaction.getIp() == null || transaction.getDate() == null) return true;
+
+        // The numeric card key is only set for card numbers that passed the Luhn check
+        Long amount = transaction.getAmount();
+        return amount == null || amount <= 0
+                || IPAddressValidator.isNonValidIp(transaction.getIp())
+                || transaction.getNumberKey() == null;
+    }
+
+    /**
+     * Helper method to save a card in the database if it doesn't exist. Concurrent requests for a new card may both
+     * try to insert it; the unique index on card.number rejects the second insert, which then reads the winner.
      *
      * @param cardNumber The card number to be checked and saved
+     * @param numberKey  The numeric key of the card number
      */
-    private void saveCardIfNotExists(String cardNumber) {
-        if (cardRepository.findByNumber(cardNumber).isEmpty()) {
-            cardRepository.save(new Card(cardNumber, false));
+    private void saveCardIfNotExists(String cardNumber, long numberKey) {
+        if (cardStateCache.get(numberKey) != null) return;
+
+        try {
+            cardStateCache.put(cardRepository.save(new Card(cardNumber, false)));
+        } catch (DataIntegrityViolationException e) {
+            if (cardStateCache.get(numberKey) == null) throw e;
+        }
+    }
+
+    /**
+     * Helper method to save all cards in the database that don't exist yet, using one query and one batch insert.
+     * If another request inserted one of the cards in the meantime, the batch is rolled back and the cards are saved
+     * one by one instead.
+     *
+     * @param cardNumbers The card numbers to be checked and saved by their numeric key
+     */
+    private void saveCardsIfNotExist(Map<Long, String> cardNumbers) {
+        Map<Long, String> uncached = cardNumbers.entrySet().stream()
+                .filter(entry -> !cardStateCache.contains(entry.getKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (uncached.isEmpty()) return;
+
+        List<Card> existing = cardRepository.findAllByNumberKeyIn(uncached.keySet());
+        existing.forEach(cardStateCache::put);
+        existing.forEach(card -> uncached.remove(card.getNumberKey()));
+
+        List<Card> missing = uncached.values().stream()
+                .map(cardNumber -> new Card(cardNumber, false))
+                .collect(Collectors.toList());
+        if (missing.isEmpty()) return;
+
+        try {
+            cardRepository.saveAll(missing).forEach(cardStateCache::put);
+        } catch (DataIntegrityViolationException e) {
+            uncached.forEach((numberKey, cardNumber) -> saveCardIfNotExists(cardNumber, numberKey));
         }
     }
 
     /**
-     * Provide feedback for potential fraudulent transactions. To be used by support team.
+     * Provide feedback for potential fraudulent transactions. To be used by support team. Feedback on the same card is
+     * serialized by a striped lock within this process; conflicting updates from other nodes are detected by the
+     * version of the card and retried a few times.
      *
      * @param transactionId The id of the transaction to be checked
      * @param feedback      The feedback to be provided
@@ -81,7 +301,204 @@ public class TransactionService {
     public Transaction updateTransaction(long transactionId, String feedback) {
         Transaction transaction = transactionRepository.findById(transactionId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Transaction not found"));
+        checkFeedback(transaction, feedback);
+
+        Lock lock = cardLocks.lockFor(transaction.getNumberKey());
+        lock.lock();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return writeTransaction.execute(status -> applyFeedback(transactionId, feedback));
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt == LIMIT_UPDATE_ATTEMPTS) {
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "Card was changed concurrently");
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * Helper method that stores the feedback and the new card limits within the current database transaction. The
+     * transaction is read again, since feedback from another node may have been stored in the meantime.
+     *
+     * @param transactionId The id of the transaction to be checked
+     * @param feedback      The feedback to be provided
+     * @return Transaction object with the feedback provided
+     */
+    private Transaction applyFeedback(long transactionId, String feedback) {
+        Transaction transaction = transactionRepository.findById(transactionId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Transaction not found"));
+        checkFeedback(transaction, feedback);
+
+        Card card = cardRepository.findForUpdateByNumberKey(transaction.getNumberKey())
+                .orElseThrow(AssertionError::new);
+        changeLimit(card, transaction, feedback);
+        transaction.setFeedback(TransactionResult.valueOf(feedback));
+
+        // Only publish the new limits once they are committed
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cardStateCache.put(card);
+            }
+        });
+
+        return transaction;
+    }
+
+    /**
+     * Provide feedback for a batch of transactions at once. The feedback is applied in order of the transaction ids,
+     * so feedback for several transactions of the same card changes the limits the same way as one request per
+     * transaction would. All transactions and cards are read with one query each and written back in one database
+     * transaction. Feedback that can't be applied doesn't fail the batch, every item reports the status the single
+     * endpoint would have returned.
+     *
+     * @param requests The transaction ids and feedback to be provided
+     * @return List with the outcome of every feedback in input order
+     */
+    public List<FeedbackResult> updateTransactions(List<FeedbackRequest> requests) {
+        if (requests == null || requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A batch must contain between 1 and " + MAX_BATCH_SIZE + " feedback items");
+        }
+
+        // Read the transactions once up front to find out which cards have to be locked
+        Set<Long> transactionIds = requests.stream()
+                .filter(Objects::nonNull)
+                .map(FeedbackRequest::getTransactionId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> numberKeys = transactionRepository.findAllById(transactionIds).stream()
+                .map(Transaction::getNumberKey)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        List<Lock> locks = cardLocks.locksFor(numberKeys);
+        locks.forEach(Lock::lock);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return writeTransaction.execute(status -> applyFeedback(requests, transactionIds));
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt == LIMIT_UPDATE_ATTEMPTS) {
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "Card was changed concurrently");
+                    }
+                }
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Helper method that checks and stores a batch of feedback within the current database transaction. The
+     * feedback is checked first, so only the cards of accepted feedback are loaded and have their version increased.
+     *
+     * @param requests       The transaction ids and feedback to be provided
+     * @param transactionIds The ids of all transactions in the batch
+     * @return List with the outcome of every feedback in input order
+     */
+    private List<FeedbackResult> applyFeedback(List<FeedbackRequest> requests, Set<Long> transactionIds) {
+        Map<Long, Transaction> transactions = transactionRepository.findAllById(transactionIds).stream()
+                .collect(Collectors.toMap(Transaction::getId, Function.identity()));
+
+        // Requests without a transaction id sort first, the sort is stable for duplicate ids
+        List<Integer> order = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(i -> requests.get(i) == null ? null : requests.get(i).getTransactionId(),
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        FeedbackResult[] results = new FeedbackResult[requests.size()];
+        List<Integer> accepted = new ArrayList<>();
+        for (int index : order) {
+            FeedbackRequest request = requests.get(index);
+            Long transactionId = request == null ? null : request.getTransactionId();
+            if (transactionId == null) {
+                results[index] = FeedbackResult.failure(null, HttpStatus.BAD_REQUEST, "Invalid transaction id");
+                continue;
+            }
+
+            Transaction transaction = transactions.get(transactionId);
+            if (transaction == null) {
+                results[index] = FeedbackResult.failure(transactionId, HttpStatus.NOT_FOUND, "Transaction not found");
+                continue;
+            }
+
+            try {
+                checkFeedback(transaction, request.getFeedback());
+            } catch (ResponseStatusException e) {
+                results[index] = FeedbackResult.failure(transactionId, e.getStatus(), e.getReason());
+                continue;
+            }
+
+            // Set the feedback right away, so a second item for the same transaction is reported as processed
+            transaction.setFeedback(TransactionResult.valueOf(request.getFeedback()));
+            results[index] = FeedbackResult.success(transaction);
+            accepted.add(index);
+        }
+        if (accepted.isEmpty()) return List.of(results);
+
+        Set<Long> numberKeys = accepted.stream()
+                .map(index -> transactions.get(requests.get(index).getTransactionId()).getNumberKey())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Card> cards = new HashMap<>();
+        if (!numberKeys.isEmpty()) {
+            for (Card card : cardRepository.findAllForUpdateByNumberKeyIn(numberKeys)) {
+                cards.put(card.getNumberKey(), card);
+            }
+        }
+
+        // Accepted items are still in transaction id order
+        Set<Long> withoutCard = new HashSet<>();
+        for (int index : accepted) {
+            FeedbackRequest request = requests.get(index);
+            Transaction transaction = transactions.get(request.getTransactionId());
+            Card card = cards.get(transaction.getNumberKey());
+            if (card == null) {
+                // The card row is gone or was never stored (invalid number), the feedback can't change any limits
+                transaction.setFeedback(null);
+                withoutCard.add(transaction.getId());
+                continue;
+            }
+            changeLimit(card, transaction, request.getFeedback());
+        }
+
+        // Report the missing card for the item and for later items of the same transaction, which were only rejected
+        // because the feedback was already set
+        for (int index = 0; index < results.length; index++) {
+            FeedbackResult result = results[index];
+            if (withoutCard.contains(result.getTransactionId()) && (result.getStatus() == HttpStatus.OK.value()
+                    || result.getStatus() == HttpStatus.CONFLICT.value())) {
+                results[index] = FeedbackResult.failure(result.getTransactionId(), HttpStatus.NOT_FOUND,
+                        "Card not found");
+            }
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cards.values().forEach(cardStateCache::put);
+            }
+        });
+
+        return List.of(results);
+    }
+
+    /**
+     * Helper method that checks if the feedback can be applied to the transaction.
+     *
+     * @param transaction The transaction to be checked
+     * @param feedback    The feedback to be provided
+     */
+    private static void checkFeedback(Transaction transaction, String feedback) {
         if (TransactionValidator.isFeedbackWrongFormat(feedback)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid feedback");
         } else if (!transaction.getFeedback().isBlank()) {
@@ -89,25 +506,18 @@ public class TransactionService {
         } else if (transaction.getResult().equals(feedback)) {
             throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Transaction not processable");
         }
-
-        changeLimit(transaction, feedback);
-
-        transaction.setFeedback(TransactionResult.valueOf(feedback));
-        transactionRepository.save(transaction);
-
-        return transaction;
     }
 
     /**
-     * Helper method to change the limit for a certain transaction based on the provided feedback.
+     * Helper method to change the limit of a card based on the feedback provided for one of its transactions. The
+     * card is written back when the surrounding database transaction commits.
      *
+     * @param card        The card of the transaction
      * @param transaction The transaction to be checked
      * @param feedback    The feedback to be provided
      */
-    private void changeLimit(Transaction transaction, String feedback) {
+    static void changeLimit(Card card, Transaction transaction, String feedback) {
         String trResult = transaction.getResult();
-        Card card = cardRepository.findByNumber(transaction.getNumber())
-                .orElseThrow(AssertionError::new);
 
         // Formula for increasing the limit: new_limit = 0.8 * current_limit + 0.2 * value_from_transaction
         int increasedAllowed = (int) Math.ceil(0.8 * card.getAllowedLimit() + 0.2 * transaction.getAmount());
@@ -131,9 +541,6 @@ public class TransactionService {
         } else if (feedback.equals("MANUAL_PROCESSING") && trResult.equals("PROHIBITED")) {
             card.setManualLimit(increasedManual);
         }
-
-        // Save the new limit in the database
-        cardRepository.save(card);
     }
 
     /**
@@ -143,11 +550,70 @@ public class TransactionService {
      * @return List of transaction history for the given card number
      */
     public List<Transaction> getTransactionHistory(String cardNumber) {
-        if (CardValidator.isNonValid(cardNumber)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        long numberKey = CardValidator.toKey(cardNumber);
+        if (numberKey == CardValidator.INVALID) throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
 
-        List<Transaction> transactions = transactionRepository.findAllByNumber(cardNumber);
+        List<Transaction> transactions = transactionRepository.findAllByNumberKey(numberKey);
         if (transactions.isEmpty()) throw new ResponseStatusException(HttpStatus.NOT_FOUND);
 
         return transactions;
     }
+
+    /**
+     * Return the whole transaction history ordered by id, for clients that don't page. Large histories should be
+     * paged or streamed instead.
+     *
+     * @return List of all transactions
+     */
+    public List<Transaction> getTransactionHistory() {
+        return transactionRepository.findAll(Sort.by("id"));
+    }
+
+    /**
+     * Return one page of the transaction history ordered by id. The next page starts after the id of the last
+     * transaction of this page, so every page is a cheap index seek no matter how deep the client pages.
+     *
+     * @param afterId Only transactions with a greater id are returned (0 for the first page)
+     * @param limit   Maximum number of transactions in the page
+     * @return List of at most limit transactions
+     */
+    public List<Transaction> getTransactionHistory(long afterId, int limit) {
+        if (afterId < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "afterId must not be negative and limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        return transactionRepository.findAllByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Stream the transaction history ordered by id as newline-delimited JSON. Rows are written while they are read
+     * from the database and detached right after, so memory use doesn't grow with the size of the table.
+     *
+     * @param afterId Only transactions with a greater id are written (0 for the whole history)
+     * @return Response body that writes one transaction per line
+     */
+    public StreamingResponseBody streamTransactionHistory(long afterId) {
+        if (afterId < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "afterId must not be negative");
+
+        // One compact line per transaction, the servlet container decides when to flush
+        ObjectWriter writer = objectMapper.writerFor(Transaction.class)
+                .without(SerializationFeature.INDENT_OUTPUT)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+        return out -> readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Transaction> transactions = transactionRepository.streamAllByIdGreaterThan(afterId)) {
+                Iterator<Transaction> iterator = transactions.iterator();
+                while (iterator.hasNext()) {
+                    Transaction transaction = iterator.next();
+                    writer.writeValue(out, transaction);
+                    out.write('\n');
+                    entityManager.detach(transaction);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
 }
@@ -1,10 +1,13 @@
 package io.github.dankoller.antifraud.service;
 
+import io.github.dankoller.antifraud.auth.TokenService;
+import io.github.dankoller.antifraud.cache.CredentialCache;
 import io.github.dankoller.antifraud.entity.Role;
 import io.github.dankoller.antifraud.entity.user.User;
 import io.github.dankoller.antifraud.persistence.UserRepository;
 import io.github.dankoller.antifraud.request.LoginRequest;
 import io.github.dankoller.antifraud.request.UserDTO;
+import io.github.dankoller.antifraud.response.TokenResponse;
 import io.github.dankoller.antifraud.response.UserDataResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -26,6 +29,12 @@ public class UserService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private TokenService tokenService;
+
     /**
      * Returns a certain user by username.
      *
@@ -43,6 +52,35 @@ public class UserService {
      * @return UserDataResponse object containing the user's information
      */
     public UserDataResponse login(LoginRequest loginRequest) {
+        return UserDataResponse.createUserDataResponse(authenticate(loginRequest));
+    }
+
+    /**
+     * Login a user by validating the username and password and issue a signed token, which can be used instead of
+     * the password until it expires.
+     *
+     * @param loginRequest The login request object containing the username and password
+     * @return TokenResponse object containing the user's information and the token
+     */
+    public TokenResponse loginWithToken(LoginRequest loginRequest) {
+        User user = authenticate(loginRequest);
+        TokenService.Token token = tokenService.issue(user);
+
+        return new TokenResponse(
+                UserDataResponse.createUserDataResponse(user),
+                token.getValue(),
+                "Bearer",
+                token.getExpiresAt()
+        );
+    }
+
+    /**
+     * Helper method that checks the credentials and the lock status of a user.
+     *
+     * @param loginRequest The login request object containing the username and password
+     * @return The authenticated user
+     */
+    private User authenticate(LoginRequest loginRequest) {
         User user = findByUsername(loginRequest.getUsername());
 
         // Check if user exists
@@ -55,7 +93,7 @@ public class UserService {
         // Check if user is locked
         if (!user.isAccountNonLocked()) throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User is locked");
 
-        return UserDataResponse.createUserDataResponse(user);
+        return user;
     }
 
     /**
@@ -86,8 +124,9 @@ public class UserService {
         // Salt password and encode it
         user.setPassword(passwordEncoder.encode(user.getPassword()));
 
-        // Save user to database
+        // Save user to database, cached credentials of a previous user with the same name must not be used anymore
         userRepository.save(user);
+        credentialCache.invalidate(user.getUsername());
 
         return user;
     }
@@ -106,6 +145,8 @@ public class UserService {
         } else {
             User userToDelete = tmpUser.get();
             userRepository.delete(userToDelete);
+            credentialCache.invalidate(username);
+            tokenService.revoke(username);
         }
     }
 
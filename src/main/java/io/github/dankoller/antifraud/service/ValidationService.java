@@ -1,34 +1,127 @@
 package io.github.dankoller.antifraud.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.LongHashSet;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
 import io.github.dankoller.antifraud.entity.Card;
 import io.github.dankoller.antifraud.entity.IPAddress;
+import io.github.dankoller.antifraud.persistence.BlocklistWriter;
 import io.github.dankoller.antifraud.persistence.CardRepository;
 import io.github.dankoller.antifraud.persistence.SuspiciousIPRepository;
+import io.github.dankoller.antifraud.response.ImportSummary;
+import io.github.dankoller.antifraud.util.CardLocks;
 import io.github.dankoller.antifraud.util.CardValidator;
 import io.github.dankoller.antifraud.util.IPAddressValidator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @SuppressWarnings("unused")
 public class ValidationService {
 
+    public static final MediaType TEXT_CSV = MediaType.valueOf("text/csv");
+
+    // Attempts to store an import batch that collides with cards or IP addresses saved by concurrent requests
+    private static final int IMPORT_ATTEMPTS = 3;
+
+    // Positions in the counters of an import
+    private static final int ACCEPTED = 0;
+    private static final int DUPLICATE = 1;
+    private static final int REJECTED = 2;
+
+    @Value("${antifraud.import.batch-size:1000}")
+    private int importBatchSize;
+
+    @Autowired
+    private BlocklistWriter blocklistWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate writeTransaction;
+
     @Autowired
     private SuspiciousIPRepository suspiciousIPRepository;
 
     @Autowired
     private CardRepository cardRepository;
 
+    @Autowired
+    private StolenCardIndex stolenCardIndex;
+
+    @Autowired
+    private SuspiciousIPIndex suspiciousIPIndex;
+
+    @Autowired
+    private CardStateCache cardStateCache;
+
+    @Autowired
+    private CardLocks cardLocks;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        writeTransaction = new TransactionTemplate(transactionManager);
+    }
+
     /**
-     * Save suspicious IP addresses to prevented further transactions.
+     * Save suspicious IP addresses or CIDR ranges (e.g. 10.4.0.0/16) to prevented further transactions.
      *
-     * @param ip IP address to be saved
+     * @param ip IP address or CIDR range to be saved
      * @return Saved IP address
      */
     public IPAddress saveSuspiciousIP(String ip) {
-        if (IPAddressValidator.isNonValidIp(ip)) {
+        if (isNonValidEntry(ip)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid IP address");
         }
 
@@ -37,28 +130,69 @@ public class ValidationService {
         }
 
         IPAddress ipAddress = new IPAddress(ip);
-        suspiciousIPRepository.save(ipAddress);
+        try {
+            suspiciousIPRepository.save(ipAddress);
+        } catch (DataIntegrityViolationException e) {
+            // Saved by a concurrent request after the check above, rejected by the unique index
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Card number is flagged as stolen");
+        }
+        suspiciousIPIndex.add(ip);
 
         return ipAddress;
     }
 
     /**
-     * Returns a list of all suspicious IP addresses currently stored.
+     * Returns all suspicious IP addresses ordered by id, for clients that don't page.
      *
      * @return List of suspicious IP addresses
      */
-    public Iterable<IPAddress> getSuspiciousIPs() {
-        return suspiciousIPRepository.findAll();
+    public List<IPAddress> getSuspiciousIPs() {
+        return suspiciousIPRepository.findAll(Sort.by("id"));
+    }
+
+    /**
+     * Returns one page of the suspicious IP addresses ordered by id. The next page starts after the id of the last
+     * entry of this page.
+     *
+     * @param afterId Only entries with a greater id are returned (0 for the first page)
+     * @param limit   Maximum number of entries in the page
+     * @return List of at most limit suspicious IP addresses
+     */
+    public List<IPAddress> getSuspiciousIPs(long afterId, int limit) {
+        checkPage(afterId, limit);
+        return suspiciousIPRepository.findAllByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Stream the suspicious IP addresses ordered by id, one per line.
+     *
+     * @param afterId Only entries with a greater id are written (0 for the whole list)
+     * @param csv     True for CSV (with a header row), false for newline-delimited JSON
+     * @return Response body that writes one entry per line
+     */
+    public StreamingResponseBody streamSuspiciousIPs(long afterId, boolean csv) {
+        if (afterId < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "afterId must not be negative");
+        return stream(() -> suspiciousIPRepository.streamAllByIdGreaterThan(afterId), IPAddress.class,
+                csv ? "id,ip" : null, ipAddress -> ipAddress.getId() + "," + ipAddress.getIp());
     }
 
     /**
-     * Remove a suspicious IP address from the database.
+     * Returns the number of suspicious IP addresses and ranges this node blocks, without querying the database.
      *
-     * @param ip IP address to be removed
+     * @return Number of entries in the blocklist
+     */
+    public long countSuspiciousIPs() {
+        return suspiciousIPIndex.size();
+    }
+
+    /**
+     * Remove a suspicious IP address or CIDR range from the database.
+     *
+     * @param ip IP address or CIDR range to be removed
      * @return A String containing the success status and the removed IP address
      */
     public String deleteSuspiciousIP(String ip) {
-        if (IPAddressValidator.isNonValidIp(ip)) {
+        if (isNonValidEntry(ip)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid IP address");
         }
 
@@ -66,10 +200,23 @@ public class ValidationService {
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "IP address not found"));
 
         suspiciousIPRepository.delete(ipAddress);
+        suspiciousIPIndex.remove(ip);
 
         return "IP " + ip + " successfully removed!";
     }
 
+    /**
+     * Helper method that validates a blocklist entry, which can either be a single IP address or a CIDR range.
+     *
+     * @param entry The entry to be validated
+     * @return True if the entry is invalid, false otherwise
+     */
+    private static boolean isNonValidEntry(String entry) {
+        return IPAddressValidator.isCidr(entry)
+                ? IPAddressValidator.isNonValidCidr(entry)
+                : IPAddressValidator.isNonValidIp(entry);
+    }
+
     /**
      * Save potentially stolen cards to prevent further transactions and reduce the risk of fraud for the customer.
      *
@@ -77,27 +224,43 @@ public class ValidationService {
      * @return Saved card entity
      */
     public Card saveStolenCard(String cardNumber) {
-        if (CardValidator.isNonValid(cardNumber)) {
+        long numberKey = CardValidator.toKey(cardNumber);
+        if (numberKey == CardValidator.INVALID) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid card number");
         }
 
         Card card;
 
-        // Check if the card already exists in the database
-        if (cardRepository.findByNumber(cardNumber).isPresent()) {
-            if (cardRepository.existsByNumberAndIsLockedTrue(cardNumber)) {
-                throw new ResponseStatusException(HttpStatus.CONFLICT, "Card number is flagged as stolen");
+        // Feedback on the same card waits, changes from other nodes are detected by the version of the card
+        Lock lock = cardLocks.lockFor(numberKey);
+        lock.lock();
+        try {
+            // Check if the card already exists in the database
+            Optional<Card> existing = cardRepository.findByNumberKey(numberKey);
+            if (existing.isPresent()) {
+                if (existing.get().isLocked()) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "Card number is flagged as stolen");
+                } else {
+                    // Lock the existing card to prevent fraud attempts
+                    card = existing.get();
+                    card.setLocked(true);
+                }
             } else {
-                // Lock the existing card to prevent fraud attempts
-                card = cardRepository.findByNumber(cardNumber).get();
-                card.setLocked(true);
+                // Create a new card entity and lock it right away
+                card = new Card(cardNumber, true);
             }
-        } else {
-            // Create a new card entity and lock it right away
-            card = new Card(cardNumber, true);
-        }
 
-        cardRepository.save(card);
+            try {
+                card = cardRepository.save(card);
+            } catch (DataIntegrityViolationException | OptimisticLockingFailureException e) {
+                // Saved by a concurrent request after the check above, rejected by the unique index or the version
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Card number is flagged as stolen");
+            }
+        } finally {
+            lock.unlock();
+        }
+        cardStateCache.put(card);
+        stolenCardIndex.add(numberKey);
 
         return card;
     }
@@ -109,24 +272,309 @@ public class ValidationService {
      * @return A String containing the success status and the removed card number
      */
     public String deleteStolenCard(String cardNumber) {
-        if (CardValidator.isNonValid(cardNumber)) {
+        long numberKey = CardValidator.toKey(cardNumber);
+        if (numberKey == CardValidator.INVALID) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid card number");
         }
 
-        Card card = cardRepository.findByNumber(cardNumber)
+        Card card = cardRepository.findByNumberKey(numberKey)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Card number not found"));
 
-        if (card.isLocked()) cardRepository.delete(card);
+        if (card.isLocked()) {
+            Lock lock = cardLocks.lockFor(numberKey);
+            lock.lock();
+            try {
+                cardRepository.delete(card);
+            } catch (OptimisticLockingFailureException e) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Card was changed concurrently");
+            } finally {
+                lock.unlock();
+            }
+            cardStateCache.remove(numberKey);
+            stolenCardIndex.remove(numberKey);
+        }
 
         return "Card " + cardNumber + " successfully removed!";
     }
 
     /**
-     * Returns a list of all potentially stolen cards currently stored.
+     * Returns all potentially stolen cards ordered by id, for clients that don't page.
      *
      * @return List of potentially stolen cards
      */
-    public Iterable<Card> getStolenCards() {
-        return cardRepository.findAllByIsLockedTrue();
+    public List<Card> getStolenCards() {
+        return cardRepository.findAllByIsLockedTrueOrderByIdAsc();
+    }
+
+    /**
+     * Returns one page of the potentially stolen cards ordered by id. The next page starts after the id of the last
+     * card of this page.
+     *
+     * @param afterId Only cards with a greater id are returned (0 for the first page)
+     * @param limit   Maximum number of cards in the page
+     * @return List of at most limit potentially stolen cards
+     */
+    public List<Card> getStolenCards(long afterId, int limit) {
+        checkPage(afterId, limit);
+        return cardRepository.findAllByIsLockedTrueAndIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Stream the potentially stolen cards ordered by id, one per line.
+     *
+     * @param afterId Only cards with a greater id are written (0 for the whole list)
+     * @param csv     True for CSV (with a header row), false for newline-delimited JSON
+     * @return Response body that writes one card per line
+     */
+    public StreamingResponseBody streamStolenCards(long afterId, boolean csv) {
+        if (afterId < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "afterId must not be negative");
+        return stream(() -> cardRepository.streamAllByIsLockedTrueAndIdGreaterThan(afterId), Card.class,
+                csv ? "id,number" : null, card -> card.getId() + "," + card.getNumber());
+    }
+
+    /**
+     * Returns the number of cards this node treats as stolen, without querying the database.
+     *
+     * @return Number of stolen cards
+     */
+    public long countStolenCards() {
+        return stolenCardIndex.size();
+    }
+
+    private static void checkPage(long afterId, int limit) {
+        if (afterId < 0 || limit < 1 || limit > TransactionService.MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "afterId must not be negative and limit must be between 1 and " + TransactionService.MAX_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Helper method that writes the rows of a query while they are read from the database and detaches them right
+     * after, so memory use doesn't grow with the size of the list.
+     *
+     * @param rows    Opens the stream of rows, called within a read-only transaction
+     * @param type    The entity type, written as compact JSON if no CSV header is given
+     * @param header  The CSV header or null for newline-delimited JSON
+     * @param csvLine Formats a row as CSV line
+     * @return Response body that writes one row per line
+     */
+    private <T> StreamingResponseBody stream(Supplier<Stream<T>> rows, Class<T> type, String header,
+                                             Function<T, String> csvLine) {
+        ObjectWriter writer = objectMapper.writerFor(type)
+                .without(SerializationFeature.INDENT_OUTPUT)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+        return out -> readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<T> stream = rows.get()) {
+                if (header != null) writeLine(out, header);
+
+                Iterator<T> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    T row = iterator.next();
+                    if (header != null) {
+                        writeLine(out, csvLine.apply(row));
+                    } else {
+                        writer.writeValue(out, row);
+                        out.write('\n');
+                    }
+                    entityManager.detach(row);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /**
+     * Import a list of stolen card numbers. The body is read line by line while it arrives, every valid card number
+     * is checked against the ones read before and the cards are written in JDBC batches, so the import neither
+     * buffers the upload nor queries the database for every card. Existing cards are flagged as stolen.
+     *
+     * @param body        The uploaded list, NDJSON ({"number": "..."} per line) or CSV (card number in the first
+     *                    column, optional header)
+     * @param contentType The media type of the upload
+     * @return Summary with the number of accepted, duplicate and rejected entries
+     */
+    public ImportSummary importStolenCards(InputStream body, MediaType contentType) {
+        long[] counts = new long[3];
+        LongHashSet seen = new LongHashSet(1024);
+        Map<Long, String> batch = new LinkedHashMap<>();
+
+        readEntries(body, contentType, "number", number -> {
+            long numberKey = number == null ? CardValidator.INVALID : CardValidator.toKey(number);
+            if (numberKey == CardValidator.INVALID) {
+                counts[REJECTED]++;
+            } else if (!seen.add(numberKey)) {
+                counts[DUPLICATE]++;
+            } else {
+                batch.put(numberKey, number);
+                if (batch.size() >= importBatchSize) saveStolenCards(batch, counts);
+            }
+        });
+        saveStolenCards(batch, counts);
+
+        return new ImportSummary(counts[ACCEPTED], counts[DUPLICATE], counts[REJECTED]);
+    }
+
+    /**
+     * Import a list of suspicious IP addresses or CIDR ranges, the same way stolen cards are imported.
+     *
+     * @param body        The uploaded list, NDJSON ({"ip": "..."} per line) or CSV (IP address or range in the first
+     *                    column, optional header)
+     * @param contentType The media type of the upload
+     * @return Summary with the number of accepted, duplicate and rejected entries
+     */
+    public ImportSummary importSuspiciousIPs(InputStream body, MediaType contentType) {
+        long[] counts = new long[3];
+        Set<String> seen = new HashSet<>();
+        Set<String> batch = new HashSet<>();
+
+        readEntries(body, contentType, "ip", ip -> {
+            if (ip == null || isNonValidEntry(ip)) {
+                counts[REJECTED]++;
+            } else if (!seen.add(ip)) {
+                counts[DUPLICATE]++;
+            } else {
+                batch.add(ip);
+                if (batch.size() >= importBatchSize) saveSuspiciousIPs(batch, counts);
+            }
+        });
+        saveSuspiciousIPs(batch, counts);
+
+        return new ImportSummary(counts[ACCEPTED], counts[DUPLICATE], counts[REJECTED]);
+    }
+
+    /**
+     * Helper method that stores one batch of stolen cards and clears it. Cards that are flagged already count as
+     * duplicates. The in-memory state is only updated once the batch is committed.
+     *
+     * @param batch  Card numbers by numeric key
+     * @param counts Counters of the import
+     */
+    private void saveStolenCards(Map<Long, String> batch, long[] counts) {
+        if (batch.isEmpty()) return;
+
+        Map<Long, Boolean> existing = retryImport(() -> writeTransaction.execute(status -> {
+            Map<Long, Boolean> cards = blocklistWriter.findCards(batch.keySet());
+            Map<Long, String> missing = new LinkedHashMap<>(batch);
+            missing.keySet().removeAll(cards.keySet());
+            List<Long> unlocked = cards.entrySet().stream()
+                    .filter(card -> !card.getValue())
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+
+            blocklistWriter.insertStolenCards(missing);
+            blocklistWriter.lockCards(unlocked);
+            return cards;
+        }));
+
+        for (long numberKey : batch.keySet()) {
+            if (Boolean.TRUE.equals(existing.get(numberKey))) {
+                counts[DUPLICATE]++;
+                continue;
+            }
+            cardStateCache.remove(numberKey);
+            stolenCardIndex.add(numberKey);
+            counts[ACCEPTED]++;
+        }
+        batch.clear();
+    }
+
+    /**
+     * Helper method that stores one batch of suspicious IP addresses and clears it. Entries that are stored already
+     * count as duplicates.
+     *
+     * @param batch  IP addresses or CIDR ranges
+     * @param counts Counters of the import
+     */
+    private void saveSuspiciousIPs(Set<String> batch, long[] counts) {
+        if (batch.isEmpty()) return;
+
+        List<String> added = retryImport(() -> writeTransaction.execute(status -> {
+            List<String> missing = new ArrayList<>(batch);
+            missing.removeAll(blocklistWriter.findSuspiciousIPs(batch));
+            blocklistWriter.insertSuspiciousIPs(missing);
+            return missing;
+        }));
+
+        suspiciousIPIndex.addAll(added);
+        counts[ACCEPTED] += added.size();
+        counts[DUPLICATE] += batch.size() - added.size();
+        batch.clear();
+    }
+
+    /**
+     * Helper method that runs an import batch again if a concurrent request inserted one of its entries in the
+     * meantime. The next attempt sees that entry as existing.
+     */
+    private static <T> T retryImport(Supplier<T> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return batch.get();
+            } catch (DataIntegrityViolationException e) {
+                if (attempt == IMPORT_ATTEMPTS) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "Blocklist was changed concurrently");
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that reads one entry per line from an NDJSON or CSV upload. Blank lines are skipped; lines that
+     * can't be parsed are passed on as null, so they are counted as rejected.
+     *
+     * @param body        The uploaded list
+     * @param contentType The media type of the upload
+     * @param field       The name of the NDJSON field and the CSV header
+     * @param consumer    Receives the value of every line
+     */
+    private void readEntries(InputStream body, MediaType contentType, String field, Consumer<String> consumer) {
+        boolean csv = TEXT_CSV.isCompatibleWith(contentType);
+        if (!csv && !MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType)) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Expected NDJSON or CSV");
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            boolean first = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                if (csv) {
+                    String value = firstColumn(line);
+                    if (!(first && value.equalsIgnoreCase(field))) consumer.accept(value);
+                } else {
+                    consumer.accept(jsonField(line, field));
+                }
+                first = false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String jsonField(String line, String field) {
+        try {
+            JsonNode value = objectMapper.readTree(line).get(field);
+            return value != null && value.isTextual() ? value.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String firstColumn(String line) {
+        int end = line.indexOf(',');
+        String value = (end < 0 ? line : line.substring(0, end)).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        return value;
     }
 }
@@ -0,0 +1,67 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.CardState;
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+import java.util.function.LongFunction;
+
+/**
+ * Checks the amount of the transaction against the limits of the card. The card state is usually cached, since the
+ * card was saved right before the transaction is verified.
+ */
+public class AmountRule implements Rule {
+
+    private final LongFunction<CardState> cards;
+
+    /**
+     * Creates a new amount rule.
+     *
+     * @param cards Returns the state of a card by numeric key, usually {@link CardStateCache#get}
+     */
+    public AmountRule(LongFunction<CardState> cards) {
+        this.cards = cards;
+    }
+
+    @Override
+    public String getName() {
+        return "amount";
+    }
+
+    @Override
+    public int getCost() {
+        return 30;
+    }
+
+    @Override
+    public TransactionResult getMaxOutcome() {
+        return TransactionResult.PROHIBITED;
+    }
+
+    @Override
+    public boolean mayBlock() {
+        return true;
+    }
+
+    @Override
+    public void apply(EvaluationContext context, Verdict verdict) {
+        CardState card = cards.apply(context.getNumberKey());
+        if (card == null) throw new AssertionError();
+
+        long amount = context.getAmount();
+
+        if (amount > card.getManualLimit()) {
+            verdict.add(TransactionResult.PROHIBITED, "amount");
+        } else if (amount > card.getAllowedLimit()) {
+            verdict.add(TransactionResult.MANUAL_PROCESSING, "amount");
+        }
+    }
+
+    @Override
+    public boolean applyCached(EvaluationContext context, Verdict verdict) {
+        // Saving the card right before the verification cached its state, so this only reads the database if the
+        // entry was evicted in between
+        apply(context, verdict);
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.dankoller.antifraud.util;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks by numeric card key. Updates of the same card within this process wait for each other instead of
+ * running into optimistic locking failures, while updates of different cards rarely share a lock. Updates from other
+ * nodes are still caught by the version of the card.
+ */
+@Component
+public class CardLocks {
+
+    private static final int STRIPES = 256;
+
+    private final Lock[] locks = new Lock[STRIPES];
+
+    public CardLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the given card.
+     *
+     * @param numberKey The numeric card key
+     * @return The lock of the stripe the card belongs to
+     */
+    public Lock lockFor(long numberKey) {
+        return locks[stripe(numberKey)];
+    }
+
+    /**
+     * Returns the locks guarding the given cards in a fixed order. Callers that need several locks have to acquire
+     * them in this order, so they can't deadlock each other.
+     *
+     * @param numberKeys The numeric card keys
+     * @return The distinct locks of the cards ordered by stripe
+     */
+    public List<Lock> locksFor(Collection<Long> numberKeys) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (long numberKey : numberKeys) {
+            stripes.add(stripe(numberKey));
+        }
+
+        List<Lock> result = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            result.add(locks[stripe]);
+        }
+        return result;
+    }
+
+    private static int stripe(long numberKey) {
+        // Card numbers share prefixes, mix all bits before picking a stripe
+        long hash = numberKey * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 56) & (STRIPES - 1);
+    }
+}
@@ -2,6 +2,13 @@ package io.github.dankoller.antifraud.util;
 
 public class CardValidator {
 
+    /**
+     * Returned by {@link #toKey(String)} for card numbers that are not valid. Valid keys are never negative.
+     */
+    public static final long INVALID = -1L;
+
+    private static final int LENGTH = 16;
+
     /**
      * Checks if a card number is invalid using Luhn algorithm.
      *
@@ -9,20 +16,38 @@ public class CardValidator {
      * @return True if the card number is invalid, false otherwise
      */
     public static boolean isNonValid(String cardNumber) {
-        if (cardNumber == null) return true;
-        if (cardNumber.length() != 16) return true;
+        return toKey(cardNumber) == INVALID;
+    }
+
+    /**
+     * Validates a card number using Luhn algorithm and parses it into a numeric key in the same pass, without
+     * allocating. A 16-digit number always fits into a long, so the key identifies the card just like the string and
+     * can be used for in-memory lookups and the indexed number_key columns.
+     *
+     * @param cardNumber A card number to be validated
+     * @return The card number as long or {@link #INVALID} if it is not a valid 16-digit card number
+     */
+    public static long toKey(String cardNumber) {
+        if (cardNumber == null || cardNumber.length() != LENGTH) return INVALID;
 
+        long key = 0;
         int sum = 0;
 
-        for (int i = cardNumber.length(); i > 0; i--) {
-            int num = Character.getNumericValue(cardNumber.charAt(i - 1));
+        for (int i = 0; i < LENGTH; i++) {
+            char c = cardNumber.charAt(i);
+            if (c < '0' || c > '9') return INVALID;
 
-            if (i % 2 == 1) num *= 2;
-            if (num > 9) num -= 9;
+            int digit = c - '0';
+            key = key * 10 + digit;
 
-            sum += num;
+            // Every second digit from the left is doubled (the check digit is the rightmost one)
+            if ((i & 1) == 0) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
         }
 
-        return sum % 10 != 0;
+        return sum % 10 == 0 ? key : INVALID;
     }
 }
@@ -0,0 +1,118 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.CorrelationCounts;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+import java.time.LocalDateTime;
+
+/**
+ * Checks if the card was used from other regions or IP addresses within the correlation window. This is the most
+ * expensive rule, since the window of a card is loaded from the transaction history the first time it is needed.
+ */
+public class CorrelationRule implements Rule {
+
+    // Exactly this many other regions or IP addresses require manual processing, more prohibit the transaction
+    public static final int MANUAL_COUNT = 2;
+
+    private final Source source;
+    private final int manualCount;
+
+    /**
+     * Creates a new correlation rule with the default threshold.
+     *
+     * @param source Counts the regions and IP addresses of a card, usually the {@link CardWindowStore}
+     */
+    public CorrelationRule(Source source) {
+        this(source, MANUAL_COUNT);
+    }
+
+    /**
+     * Creates a new correlation rule, e.g. with a different threshold for a backtest.
+     *
+     * @param source      Counts the regions and IP addresses of a card
+     * @param manualCount Number of other regions or IP addresses that requires manual processing
+     */
+    public CorrelationRule(Source source, int manualCount) {
+        this.source = source;
+        this.manualCount = manualCount;
+    }
+
+    @Override
+    public String getName() {
+        return "correlation";
+    }
+
+    @Override
+    public int getCost() {
+        return 40;
+    }
+
+    @Override
+    public TransactionResult getMaxOutcome() {
+        return TransactionResult.PROHIBITED;
+    }
+
+    @Override
+    public boolean mayBlock() {
+        return true;
+    }
+
+    @Override
+    public void apply(EvaluationContext context, Verdict verdict) {
+        CorrelationCounts correlation = source.correlate(
+                context.getNumberKey(),
+                context.getDate(),
+                context.getRegion(),
+                context.getIp()
+        );
+
+        add(verdict, correlation);
+    }
+
+    @Override
+    public boolean applyCached(EvaluationContext context, Verdict verdict) {
+        CorrelationCounts correlation = source.correlateIfCached(
+                context.getNumberKey(),
+                context.getDate(),
+                context.getRegion(),
+                context.getIp()
+        );
+        if (correlation == null) return false;
+
+        add(verdict, correlation);
+        return true;
+    }
+
+    private void add(Verdict verdict, CorrelationCounts correlation) {
+        add(verdict, correlation.getRegionCount(), "region-correlation");
+        add(verdict, correlation.getIpCount(), "ip-correlation");
+    }
+
+    /**
+     * Helper method that reports manual processing for exactly the threshold of other regions or IP addresses and
+     * prohibits the transaction for more.
+     */
+    private void add(Verdict verdict, long count, String reason) {
+        if (count > manualCount) {
+            verdict.add(TransactionResult.PROHIBITED, reason);
+        } else if (count == manualCount) {
+            verdict.add(TransactionResult.MANUAL_PROCESSING, reason);
+        }
+    }
+
+    /**
+     * Counts the distinct regions and IP addresses a card was used with before a transaction, excluding the region
+     * and IP address of the transaction itself.
+     */
+    @FunctionalInterface
+    public interface Source {
+        CorrelationCounts correlate(long numberKey, LocalDateTime date, Region region, String ip);
+
+        // Same as correlate, but returns null instead of querying the history, e.g. if the window isn't cached
+        default CorrelationCounts correlateIfCached(long numberKey, LocalDateTime date, Region region, String ip) {
+            return null;
+        }
+    }
+}
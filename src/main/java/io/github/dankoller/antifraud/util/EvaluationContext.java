@@ -0,0 +1,41 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable snapshot of the transaction data a verification works on. Every request creates its own context, so the
+ * heuristics don't share any mutable state between concurrent requests.
+ */
+@AllArgsConstructor
+@Getter
+public final class EvaluationContext {
+
+    private final String number;
+    private final long numberKey;
+    private final String ip;
+    private final Region region;
+    private final long amount;
+    private final LocalDateTime date;
+
+    /**
+     * Creates a new context from the values of the given transaction.
+     *
+     * @param transaction Transaction to be verified
+     * @return The evaluation context of the transaction
+     */
+    public static EvaluationContext of(Transaction transaction) {
+        return new EvaluationContext(
+                transaction.getNumber(),
+                transaction.getNumberKey(),
+                transaction.getIp(),
+                transaction.getRegion(),
+                transaction.getAmount(),
+                transaction.getDate()
+        );
+    }
+}
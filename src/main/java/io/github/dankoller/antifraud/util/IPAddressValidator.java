@@ -1,18 +1,131 @@
 package io.github.dankoller.antifraud.util;
 
-import java.util.regex.Pattern;
-
 public class IPAddressValidator {
 
     /**
-     * Checks if a given IP address is invalid using regular expression.
+     * Returned by {@link #parse(String)} for anything that isn't a valid IPv4 address. Valid addresses are packed
+     * into the lower 32 bits, so the sentinel can't collide with one of them.
+     */
+    public static final long INVALID = -1L;
+
+    /**
+     * Checks if a given IP address is invalid. Accepts exactly four dot-separated decimal octets between 0 and 255
+     * without leading zeros.
      *
      * @param ip IP address to be checked
      * @return True if the IP address is invalid, false otherwise
      */
     public static boolean isNonValidIp(String ip) {
-        Pattern pattern = Pattern.compile("^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$");
+        return parse(ip) == INVALID;
+    }
+
+    /**
+     * Validates and packs an IPv4 address in a single pass without allocating.
+     *
+     * @param ip IP address to be parsed
+     * @return The packed address (most significant octet first) as unsigned value or {@link #INVALID}
+     */
+    public static long parse(String ip) {
+        return ip == null ? INVALID : parse(ip, 0, ip.length());
+    }
+
+    /**
+     * Validates and packs the IPv4 address between the given indices, e.g. the network address of a CIDR range.
+     *
+     * @param ip   Text containing the IP address
+     * @param from Index of the first character (inclusive)
+     * @param to   Index after the last character (exclusive)
+     * @return The packed address (most significant octet first) as unsigned value or {@link #INVALID}
+     */
+    public static long parse(CharSequence ip, int from, int to) {
+        long packed = 0;
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+
+        for (int i = from; i < to; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Leading zeros are not allowed, "0" itself is
+                if (digits == 1 && octet == 0) return INVALID;
+                octet = octet * 10 + (c - '0');
+                if (octet > 255) return INVALID;
+                digits++;
+            } else if (c == '.') {
+                if (digits == 0 || octets == 3) return INVALID;
+                packed = (packed << 8) | octet;
+                octets++;
+                octet = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+
+        if (digits == 0 || octets != 3) return INVALID;
+        return (packed << 8) | octet;
+    }
+
+    /**
+     * Checks if a given CIDR range (e.g. 10.4.0.0/16) is invalid. The host bits of the network address must be zero
+     * and the prefix length must not have a leading zero.
+     *
+     * @param range CIDR range to be checked
+     * @return True if the range is invalid, false otherwise
+     */
+    public static boolean isNonValidCidr(String range) {
+        int slash = range.indexOf('/');
+        if (slash < 0) return true;
+
+        long network = parse(range, 0, slash);
+        if (network == INVALID) return true;
+
+        int suffixLength = range.length() - slash - 1;
+        if (suffixLength < 1 || suffixLength > 2) return true;
+
+        // Like octets, prefix lengths have no leading zero, so every range has exactly one spelling ("/8", not "/08")
+        if (suffixLength == 2 && range.charAt(slash + 1) == '0') return true;
+
+        int prefixLength = 0;
+        for (int i = slash + 1; i < range.length(); i++) {
+            char c = range.charAt(i);
+            if (c < '0' || c > '9') return true;
+            prefixLength = prefixLength * 10 + (c - '0');
+        }
+        if (prefixLength > 32) return true;
+
+        return prefixLength < 32 && ((int) network & (-1 >>> prefixLength)) != 0;
+    }
+
+    /**
+     * Checks if a blocklist entry is a CIDR range rather than a single address.
+     *
+     * @param entry IP address or CIDR range
+     * @return True if the entry is a CIDR range, false otherwise
+     */
+    public static boolean isCidr(String entry) {
+        return entry != null && entry.indexOf('/') >= 0;
+    }
+
+    /**
+     * Packs a valid IPv4 address into a 32-bit int (most significant octet first), e.g. to be used as a lookup key.
+     * For a CIDR range the network address is packed.
+     *
+     * @param ip IP address that already passed {@link #isNonValidIp(String)} or {@link #isNonValidCidr(String)}
+     * @return The packed IP address
+     */
+    public static int pack(String ip) {
+        int slash = ip.indexOf('/');
+        return (int) parse(ip, 0, slash < 0 ? ip.length() : slash);
+    }
 
-        return !pattern.matcher(ip).matches();
+    /**
+     * Returns the prefix length of a valid CIDR range.
+     *
+     * @param range CIDR range that already passed {@link #isNonValidCidr(String)}
+     * @return The prefix length between 0 and 32
+     */
+    public static int prefixLength(String range) {
+        return Integer.parseInt(range.substring(range.indexOf('/') + 1));
     }
 }
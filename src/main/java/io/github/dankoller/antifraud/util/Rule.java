@@ -0,0 +1,64 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+/**
+ * A single heuristic of the {@link RuleSet}. Rules only read shared state (indexes, caches, card windows) and report
+ * their findings to the verdict of the request, so one instance can be used by concurrent requests.
+ */
+public interface Rule {
+
+    /**
+     * Returns the name of the rule, used as tag of the rule's metrics.
+     *
+     * @return The name of the rule
+     */
+    String getName();
+
+    /**
+     * Returns the relative cost of the rule. Cheaper rules run first, e.g. lookups in in-memory indexes before rules
+     * that might query the database.
+     *
+     * @return The relative cost, lower values are cheaper
+     */
+    int getCost();
+
+    /**
+     * Returns the most severe result the rule can report. Rules that can't make the result any worse than it already
+     * is can be skipped.
+     *
+     * @return MANUAL_PROCESSING or PROHIBITED
+     */
+    TransactionResult getMaxOutcome();
+
+    /**
+     * Returns whether the rule might block, e.g. on a database query. Only these rules are worth handing off to another
+     * thread when the rules run in parallel, the others are cheaper to run right away.
+     *
+     * @return True if the rule might block, false otherwise
+     */
+    default boolean mayBlock() {
+        return false;
+    }
+
+    /**
+     * Checks the transaction and adds the findings to the verdict.
+     *
+     * @param context The evaluation context of the transaction
+     * @param verdict The verdict of the transaction
+     */
+    void apply(EvaluationContext context, Verdict verdict);
+
+    /**
+     * Checks the transaction like {@link #apply}, but only with state that is already in memory. Once the result has
+     * reached the worst outcome of a rule that might block, the rule could only add a reason, which isn't worth a
+     * database query, so the rule set calls this method instead.
+     *
+     * @param context The evaluation context of the transaction
+     * @param verdict The verdict of the transaction
+     * @return True if the transaction was checked, false if that would have required blocking
+     */
+    default boolean applyCached(EvaluationContext context, Verdict verdict) {
+        return false;
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a fixed set of rules in order of their cost. With short-circuiting enabled, rules whose worst outcome is below
+ * the current result are skipped, e.g. the velocity rule once a transaction is prohibited because of a stolen card.
+ * Such a rule can neither change the result nor add a reason. Rules that might block and whose worst outcome equals
+ * the current result could only add a reason, so they only check the state they have in memory (e.g. the correlation
+ * rule once a card is known to be stolen). Their reason is missing from the info if that state isn't cached, this is
+ * the price for not querying the history of transactions that are prohibited anyway. The result is always the same.
+ * <p>
+ * If an executor is given, rules that might block run concurrently on the executor while the others run on the
+ * calling thread. Rules that don't finish within the deadline are reported as 'timeout' with MANUAL_PROCESSING,
+ * unless the result already reached their worst outcome; those are not waited for.
+ */
+public class RuleSet {
+
+    public static final String TIMEOUT = "timeout";
+
+    private final List<Rule> rules;
+    private final boolean shortCircuit;
+
+    private final Executor executor;
+    private final long timeoutNanos;
+
+    // Meters by position of the rule, null if no registry is given
+    private final Timer[] timers;
+    private final Counter[] skipped;
+    private final Counter[] timeouts;
+
+    /**
+     * Creates a new rule set that runs all rules on the calling thread.
+     *
+     * @param rules         The rules, in any order
+     * @param shortCircuit  Whether rules that can't change the result are skipped or only check in-memory state
+     * @param meterRegistry Registry for the timers of the rules or null if the rules shouldn't be timed
+     */
+    public RuleSet(List<Rule> rules, boolean shortCircuit, MeterRegistry meterRegistry) {
+        this(rules, shortCircuit, meterRegistry, null, null);
+    }
+
+    /**
+     * Creates a new rule set that runs the rules that might block on the given executor.
+     *
+     * @param rules         The rules, in any order
+     * @param shortCircuit  Whether rules that can't change the result are skipped or only check in-memory state
+     * @param meterRegistry Registry for the timers of the rules or null if the rules shouldn't be timed
+     * @param executor      Executor for the rules that might block or null to run all rules on the calling thread
+     * @param timeout       Time to wait for the rules on the executor, required if an executor is given
+     */
+    public RuleSet(List<Rule> rules, boolean shortCircuit, MeterRegistry meterRegistry,
+                   Executor executor, Duration timeout) {
+        List<Rule> sorted = new ArrayList<>(rules);
+        sorted.sort(Comparator.comparingInt(Rule::getCost));
+        this.rules = List.copyOf(sorted);
+        this.shortCircuit = shortCircuit;
+        this.executor = executor;
+        this.timeoutNanos = executor == null ? 0 : timeout.toNanos();
+
+        if (meterRegistry == null) {
+            timers = null;
+            skipped = null;
+            timeouts = null;
+            return;
+        }
+
+        timers = new Timer[this.rules.size()];
+        skipped = new Counter[this.rules.size()];
+        timeouts = new Counter[this.rules.size()];
+        for (int i = 0; i < this.rules.size(); i++) {
+            String name = this.rules.get(i).getName();
+            timers[i] = Timer.builder("antifraud.heuristic")
+                    .description("Time to run a single heuristic")
+                    .tag("heuristic", name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            skipped[i] = Counter.builder("antifraud.heuristic.skipped")
+                    .description("Heuristics skipped because they couldn't change the result, including reasons left out "
+                            + "because the heuristic would have had to block")
+                    .tag("heuristic", name)
+                    .register(meterRegistry);
+            timeouts[i] = Counter.builder("antifraud.heuristic.timeouts")
+                    .description("Heuristics that missed the deadline or couldn't be scheduled")
+                    .tag("heuristic", name)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Runs the rules against the given context without modifying any transaction.
+     *
+     * @param context The evaluation context of the transaction
+     * @return The verdict containing result and info of the transaction
+     */
+    public Verdict evaluate(EvaluationContext context) {
+        return executor == null ? evaluateSequentially(context) : evaluateInParallel(context);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public boolean isShortCircuit() {
+        return shortCircuit;
+    }
+
+    private Verdict evaluateSequentially(EvaluationContext context) {
+        Verdict verdict = new Verdict();
+
+        for (int i = 0; i < rules.size(); i++) {
+            if (settle(i, context, verdict)) continue;
+            apply(i, context, verdict);
+        }
+
+        return verdict;
+    }
+
+    /**
+     * Helper method that hands the rules that might block off to the executor, runs the others right away and waits
+     * for the results until the deadline.
+     */
+    private Verdict evaluateInParallel(EvaluationContext context) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Verdict verdict = new Verdict();
+
+        CompletionService<Verdict> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Verdict>, Integer> pending = new HashMap<>();
+
+        for (int i = 0; i < rules.size(); i++) {
+            if (settle(i, context, verdict)) continue;
+
+            if (!rules.get(i).mayBlock()) {
+                apply(i, context, verdict);
+                continue;
+            }
+
+            int index = i;
+            try {
+                pending.put(completionService.submit(() -> {
+                    // Every rule reports to its own verdict, they are merged on the calling thread
+                    Verdict partial = new Verdict();
+                    apply(index, context, partial);
+                    return partial;
+                }), index);
+            } catch (RejectedExecutionException e) {
+                // The executor is saturated, don't make the merchant wait for a free thread
+                timedOut(index, verdict);
+            }
+        }
+
+        try {
+            while (!pending.isEmpty() && !isSettled(pending.values(), verdict)) {
+                long remaining = deadline - System.nanoTime();
+                Future<Verdict> done = completionService.poll(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                if (done == null) break;
+
+                pending.remove(done);
+                verdict.merge(done.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            cancel(pending);
+            throw rethrow(e.getCause());
+        }
+
+        // Rules that are still running only check their in-memory state if they can't change the result any more, all
+        // others timed out
+        cancel(pending);
+        boolean timedOut = !isSettled(pending.values(), verdict);
+        for (int index : pending.values()) {
+            if (timedOut) {
+                timedOut(index, verdict);
+            } else {
+                settle(index, context, verdict);
+            }
+        }
+
+        return verdict;
+    }
+
+    /**
+     * Helper method that handles a rule that can't change the result any more instead of running it. Rules whose worst
+     * outcome is below the current result are skipped. Rules that might block only check their in-memory state, since
+     * they could at most add a reason; cheap rules aren't settled, they run as usual.
+     *
+     * @return True if the rule was handled, false if it has to run
+     */
+    private boolean settle(int index, EvaluationContext context, Verdict verdict) {
+        if (!isSettled(index, verdict)) return false;
+
+        Rule rule = rules.get(index);
+        boolean outranked = Verdict.severity(rule.getMaxOutcome()) < Verdict.severity(verdict.getResult());
+        if (!outranked && !rule.mayBlock()) return false;
+
+        if ((outranked || !rule.applyCached(context, verdict)) && skipped != null) skipped[index].increment();
+        return true;
+    }
+
+    private boolean isSettled(Collection<Integer> indexes, Verdict verdict) {
+        for (int index : indexes) {
+            if (!isSettled(index, verdict)) return false;
+        }
+        return true;
+    }
+
+    // A rule whose worst outcome the result already reached can't change the result any more
+    private boolean isSettled(int index, Verdict verdict) {
+        return shortCircuit
+                && Verdict.severity(rules.get(index).getMaxOutcome()) <= Verdict.severity(verdict.getResult());
+    }
+
+    private void apply(int index, EvaluationContext context, Verdict verdict) {
+        if (timers == null) {
+            rules.get(index).apply(context, verdict);
+            return;
+        }
+
+        long start = System.nanoTime();
+        rules.get(index).apply(context, verdict);
+        timers[index].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void timedOut(int index, Verdict verdict) {
+        if (timeouts != null) timeouts[index].increment();
+        verdict.add(TransactionResult.MANUAL_PROCESSING, TIMEOUT);
+    }
+
+    /**
+     * Helper method that cancels rules that are no longer waited for. Running rules aren't interrupted, since an
+     * interrupted database call can leave the connection in an undefined state; their results are dropped.
+     */
+    private static void cancel(Map<Future<Verdict>, Integer> pending) {
+        for (Future<Verdict> future : pending.keySet()) {
+            future.cancel(false);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new IllegalStateException(cause);
+    }
+}
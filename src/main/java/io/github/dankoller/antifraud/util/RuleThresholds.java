@@ -0,0 +1,25 @@
+package io.github.dankoller.antifraud.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Thresholds of the heuristics that a shadow run or a backtest may change, see TransactionValidator#createRules
+@AllArgsConstructor
+@Getter
+public class RuleThresholds {
+
+    // Number of other regions or IP addresses that requires manual processing
+    private final int correlationCount;
+
+    // Limits per velocity window, both null if the velocity heuristic is disabled
+    private final long[] velocityMaxCounts;
+    private final long[] velocityMaxAmounts;
+
+    public boolean isVelocity() {
+        return velocityMaxCounts != null;
+    }
+
+    public RuleThresholds withCorrelationCount(int correlationCount) {
+        return new RuleThresholds(correlationCount, velocityMaxCounts, velocityMaxAmounts);
+    }
+}
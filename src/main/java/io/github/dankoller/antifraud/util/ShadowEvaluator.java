@@ -0,0 +1,298 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.VelocityCounts;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.github.dankoller.antifraud.response.ShadowDecision;
+import io.github.dankoller.antifraud.response.ShadowReport;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a candidate set of heuristics against live traffic without affecting the responses. Verified transactions are
+ * handed to a background thread through a bounded lock-free queue; if the queue is full, the transaction is dropped
+ * from the shadow run instead of slowing the merchant down. The candidate result is counted together with the
+ * production result, so the disagreement rate shows up in the metrics, and the latest disagreements are kept for
+ * inspection.
+ * <p>
+ * The candidate rules read the same in-memory state as the production rules. By the time a candidate runs, the
+ * velocity counters may also contain later transactions of the same card, so the velocity counts are taken when the
+ * transaction is captured, right after production verified it. The correlation windows answer for any point in time.
+ * 'Unused fields' warnings are suppressed because the fields are automatically filled at runtime.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("unused")
+public class ShadowEvaluator {
+
+    private static final int RECENT_DISAGREEMENTS = 100;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Value("${antifraud.shadow.enabled:false}")
+    private boolean enabled;
+
+    @Value("${antifraud.shadow.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Thresholds of the candidate heuristics, the defaults match the production ones
+    @Value("${antifraud.shadow.correlation-count:" + CorrelationRule.MANUAL_COUNT + "}")
+    private int correlationCount;
+
+    @Value("${antifraud.shadow.velocity.enabled:false}")
+    private boolean velocity;
+
+    @Value("${antifraud.shadow.velocity.max-count:5,20,100}")
+    private long[] velocityMaxCounts;
+
+    @Value("${antifraud.shadow.velocity.max-amount:3000,10000,50000}")
+    private long[] velocityMaxAmounts;
+
+    @Autowired
+    private CardStateCache cardStateCache;
+
+    @Autowired
+    private CardWindowStore cardWindowStore;
+
+    @Autowired
+    private TransactionValidator transactionValidator;
+
+    @Autowired
+    private VelocityStore velocityStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Unbounded queue with a separate size, so neither offering nor polling ever takes a lock
+    private final Queue<Candidate> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong disagreements = new AtomicLong();
+    private final Deque<ShadowDecision> recent = new ConcurrentLinkedDeque<>();
+
+    private RuleThresholds thresholds;
+    private volatile boolean running;
+    private Thread evaluatorThread;
+
+    private Counter[][] decisions;
+    private Counter dropped;
+    private Counter errors;
+    private Timer lag;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+
+        thresholds = velocity
+                ? new RuleThresholds(correlationCount, velocityMaxCounts, velocityMaxAmounts)
+                : new RuleThresholds(correlationCount, null, null);
+
+        TransactionResult[] results = TransactionResult.values();
+        decisions = new Counter[results.length][results.length];
+        for (TransactionResult production : results) {
+            for (TransactionResult shadow : results) {
+                decisions[production.ordinal()][shadow.ordinal()] = Counter.builder("antifraud.shadow.decisions")
+                        .description("Transactions verified by the candidate heuristics by production and shadow result")
+                        .tag("production", production.name())
+                        .tag("shadow", shadow.name())
+                        .register(meterRegistry);
+            }
+        }
+        Gauge.builder("antifraud.shadow.disagreement.ratio", this, ShadowEvaluator::getDisagreementRate)
+                .description("Share of the shadowed transactions whose candidate result differs from production")
+                .register(meterRegistry);
+        Gauge.builder("antifraud.shadow.queue.depth", queued, AtomicInteger::get)
+                .description("Transactions waiting for the candidate heuristics")
+                .register(meterRegistry);
+        dropped = Counter.builder("antifraud.shadow.dropped")
+                .description("Transactions not shadowed because the queue was full")
+                .register(meterRegistry);
+        errors = Counter.builder("antifraud.shadow.errors")
+                .description("Transactions the candidate heuristics failed on")
+                .register(meterRegistry);
+        lag = Timer.builder("antifraud.shadow.lag")
+                .description("Time from the production decision until the candidate result")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        running = true;
+        evaluatorThread = new Thread(this::run, "shadow-evaluator");
+        evaluatorThread.setDaemon(true);
+        evaluatorThread.start();
+    }
+
+    /**
+     * Stops the evaluator thread. Transactions still queued are not shadowed any more.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) return;
+
+        running = false;
+        LockSupport.unpark(evaluatorThread);
+        evaluatorThread.join();
+    }
+
+    /**
+     * Captures the production decision of a transaction together with the velocity counts the candidate needs.
+     *
+     * @param transaction Transaction with the production result, before it is recorded in the in-memory state
+     * @return The candidate to be submitted once the transaction is stored, null if shadow mode is disabled
+     */
+    public Candidate capture(Transaction transaction) {
+        if (!enabled) return null;
+
+        VelocityCounts velocityCounts = thresholds.isVelocity()
+                ? velocityStore.count(transaction.getNumberKey(), transaction.getDate())
+                : null;
+        return new Candidate(transaction, EvaluationContext.of(transaction), velocityCounts,
+                TransactionResult.valueOf(transaction.getResult()), transaction.getInfo());
+    }
+
+    /**
+     * Hands a captured transaction to the candidate heuristics. Never blocks: if the queue is full, the transaction
+     * is dropped from the shadow run.
+     *
+     * @param candidate Candidate returned by {@link #capture}, null is ignored
+     */
+    public void submit(Candidate candidate) {
+        if (candidate == null) return;
+
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+
+        candidate.submitted = System.nanoTime();
+        queue.offer(candidate);
+    }
+
+    /**
+     * Returns the decisions of the candidate heuristics so far.
+     *
+     * @return Counts by production and shadow result and the latest disagreements, newest first
+     */
+    public ShadowReport getReport() {
+        Map<String, Map<String, Long>> decisionMap = new LinkedHashMap<>();
+        if (enabled) {
+            for (TransactionResult production : TransactionResult.values()) {
+                Map<String, Long> row = new LinkedHashMap<>();
+                for (TransactionResult shadow : TransactionResult.values()) {
+                    row.put(shadow.name(), (long) decisions[production.ordinal()][shadow.ordinal()].count());
+                }
+                decisionMap.put(production.name(), row);
+            }
+        }
+
+        return new ShadowReport(enabled, queued.get(), enabled ? (long) dropped.count() : 0, evaluated.get(),
+                disagreements.get(), getDisagreementRate(), decisionMap, List.copyOf(recent));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether the candidate heuristics read the velocity counts.
+     *
+     * @return True if shadow mode and its velocity heuristic are enabled, false otherwise
+     */
+    public boolean isVelocity() {
+        return enabled && velocity;
+    }
+
+    private double getDisagreementRate() {
+        long count = evaluated.get();
+        return count == 0 ? 0 : (double) disagreements.get() / count;
+    }
+
+    private void run() {
+        while (running) {
+            Candidate candidate = queue.poll();
+            if (candidate == null) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+                continue;
+            }
+            queued.decrementAndGet();
+
+            try {
+                evaluate(candidate);
+            } catch (RuntimeException e) {
+                // A broken candidate must not stop the shadow run
+                errors.increment();
+                log.warn("Candidate heuristics failed on a transaction", e);
+            }
+        }
+    }
+
+    private void evaluate(Candidate candidate) {
+        // Rules are cheap to create, a rule set per candidate lets the velocity rule read the captured counts. No meter
+        // registry, the timers of the production heuristics use the same names
+        VelocityCounts velocityCounts = candidate.velocityCounts;
+        List<Rule> rules = transactionValidator.createRules(thresholds, cardWindowStore, cardStateCache::get,
+                (numberKey, date) -> velocityCounts);
+        Verdict verdict = new RuleSet(rules, true, null).evaluate(candidate.context);
+        TransactionResult shadow = verdict.getResult();
+
+        decisions[candidate.result.ordinal()][shadow.ordinal()].increment();
+        lag.record(System.nanoTime() - candidate.submitted, TimeUnit.NANOSECONDS);
+        if (shadow != candidate.result) {
+            disagreements.incrementAndGet();
+            // The id is known by now unless the transaction still waits in the write-behind queue
+            recent.addFirst(new ShadowDecision(candidate.transaction.getId(), candidate.result.name(), candidate.info,
+                    shadow.name(), verdict.getInfo()));
+            if (recent.size() > RECENT_DISAGREEMENTS) recent.pollLast();
+        }
+
+        // Counted last, so a report that includes the transaction also includes its disagreement
+        evaluated.incrementAndGet();
+    }
+
+    /**
+     * A transaction waiting for the candidate heuristics together with its production decision and the velocity
+     * counts at the time it was verified.
+     */
+    public static final class Candidate {
+        private final Transaction transaction;
+        private final EvaluationContext context;
+        // Null if the candidate heuristics don't include velocity
+        private final VelocityCounts velocityCounts;
+        private final TransactionResult result;
+        private final String info;
+        // Written before the candidate is queued, the queue publishes it to the evaluator thread
+        private long submitted;
+
+        private Candidate(Transaction transaction, EvaluationContext context, VelocityCounts velocityCounts,
+                          TransactionResult result, String info) {
+            this.transaction = transaction;
+            this.context = context;
+            this.velocityCounts = velocityCounts;
+            this.result = result;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+/**
+ * Prohibits transactions with card numbers that are flagged as stolen, using the in-memory index.
+ */
+public class StolenCardRule implements Rule {
+
+    private final StolenCardIndex stolenCardIndex;
+
+    public StolenCardRule(StolenCardIndex stolenCardIndex) {
+        this.stolenCardIndex = stolenCardIndex;
+    }
+
+    @Override
+    public String getName() {
+        return "stolen-card";
+    }
+
+    @Override
+    public int getCost() {
+        return 10;
+    }
+
+    @Override
+    public TransactionResult getMaxOutcome() {
+        return TransactionResult.PROHIBITED;
+    }
+
+    @Override
+    public void apply(EvaluationContext context, Verdict verdict) {
+        if (stolenCardIndex.contains(context.getNumberKey())) {
+            verdict.add(TransactionResult.PROHIBITED, "card-number");
+        }
+    }
+}
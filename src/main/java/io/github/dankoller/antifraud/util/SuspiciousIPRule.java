@@ -0,0 +1,38 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+/**
+ * Prohibits transactions from IP addresses that are flagged as suspicious, using the in-memory blocklist.
+ */
+public class SuspiciousIPRule implements Rule {
+
+    private final SuspiciousIPIndex suspiciousIPIndex;
+
+    public SuspiciousIPRule(SuspiciousIPIndex suspiciousIPIndex) {
+        this.suspiciousIPIndex = suspiciousIPIndex;
+    }
+
+    @Override
+    public String getName() {
+        return "suspicious-ip";
+    }
+
+    @Override
+    public int getCost() {
+        return 20;
+    }
+
+    @Override
+    public TransactionResult getMaxOutcome() {
+        return TransactionResult.PROHIBITED;
+    }
+
+    @Override
+    public void apply(EvaluationContext context, Verdict verdict) {
+        if (suspiciousIPIndex.contains(context.getIp())) {
+            verdict.add(TransactionResult.PROHIBITED, "ip");
+        }
+    }
+}
@@ -1,32 +1,117 @@
 package io.github.dankoller.antifraud.util;
 
-import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.cache.CardState;
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.cache.VelocityStore;
 import io.github.dankoller.antifraud.entity.transaction.Transaction;
 import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
-import io.github.dankoller.antifraud.persistence.CardRepository;
-import io.github.dankoller.antifraud.persistence.SuspiciousIPRepository;
-import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
 
 @Component
 @SuppressWarnings("unused")
 public class TransactionValidator {
 
-    private Transaction transaction;
+    @Autowired
+    private CardStateCache cardStateCache;
+
+    @Autowired
+    private CardWindowStore cardWindowStore;
 
     @Autowired
-    private SuspiciousIPRepository suspiciousIPRepository;
+    private StolenCardIndex stolenCardIndex;
 
     @Autowired
-    private CardRepository cardRepository;
+    private SuspiciousIPIndex suspiciousIPIndex;
 
     @Autowired
-    private TransactionRepository transactionRepository;
+    private VelocityStore velocityStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Skip heuristics that can't change the result any more or let them check only in-memory state
+    @Value("${antifraud.rules.short-circuit:true}")
+    private boolean shortCircuit;
+
+    // Run the heuristics that might block concurrently and wait for them until the deadline
+    @Value("${antifraud.rules.parallel.enabled:false}")
+    private boolean parallel;
+
+    @Value("${antifraud.rules.parallel.threads:16}")
+    private int threads;
+
+    @Value("${antifraud.rules.parallel.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${antifraud.rules.parallel.timeout-ms:250}")
+    private long timeoutMillis;
+
+    // Limits of the velocity heuristic per window (1m, 10m, 24h)
+    @Value("${antifraud.velocity.enabled:false}")
+    private boolean velocity;
+
+    @Value("${antifraud.velocity.max-count:5,20,100}")
+    private long[] velocityMaxCounts;
+
+    @Value("${antifraud.velocity.max-amount:3000,10000,50000}")
+    private long[] velocityMaxAmounts;
 
-    private Set<String> info = new TreeSet<>();
+    private RuleSet ruleSet;
+    private ThreadPoolExecutor executor;
+
+    private final Map<TransactionResult, Counter> resultCounters = new EnumMap<>(TransactionResult.class);
+    private final Map<String, Counter> reasonCounters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (parallel) {
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("heuristic-"));
+        }
+
+        List<Rule> rules = createRules(getThresholds(), cardWindowStore, cardStateCache::get,
+                velocityStore::count);
+        ruleSet = new RuleSet(rules, shortCircuit, meterRegistry, executor, Duration.ofMillis(timeoutMillis));
+
+        for (TransactionResult result : TransactionResult.values()) {
+            resultCounters.put(result, Counter.builder("antifraud.decisions")
+                    .description("Verified transactions by result")
+                    .tag("result", result.name())
+                    .register(meterRegistry));
+        }
+        // Register the known reasons up front, so they show up with zero counts
+        for (String reason : List.of("card-number", "ip", "region-correlation", "ip-correlation", "amount",
+                "velocity", RuleSet.TIMEOUT)) {
+            reasonCounter(reason);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
 
     /**
      * Checks if the feedback matches the transaction result.
@@ -40,120 +125,72 @@ public class TransactionValidator {
 
     /**
      * Receives a new transaction and verifies it based on certain heuristics (e.g. suspicious IPs, stolen cards, etc.).
+     * The validator itself holds no per-request state, so it can be used by concurrent requests.
      *
      * @param transaction Transaction to verify.
      */
     public void verifyTransaction(Transaction transaction) {
-        this.transaction = transaction;
-        this.info = new TreeSet<>();
-
-        transaction.setResult(TransactionResult.ALLOWED);
+        Verdict verdict = evaluate(EvaluationContext.of(transaction));
 
-        // Heuristics for the transaction
-        checkIfStolenCard();
-        checkIfSuspiciousIP();
-        checkIfCorrelationExists();
-        checkIfAmountIsTooHigh();
+        transaction.setResult(verdict.getResult());
+        transaction.setInfo(verdict.getInfo());
 
-        transaction.setInfo(formatInfo());
-    }
-
-    /**
-     * Checks if the card number of the transaction is flagged as stolen in the database.
-     */
-    private void checkIfStolenCard() {
-        if (cardRepository.existsByNumberAndIsLockedTrue(transaction.getNumber())) {
-            transaction.setResult(TransactionResult.PROHIBITED);
-            info.add("card-number");
-        }
-    }
-
-    /**
-     * Checks if the IP address of the transaction is flagged as suspicious in the database.
-     */
-    private void checkIfSuspiciousIP() {
-        if (suspiciousIPRepository.findByIp(transaction.getIp()).isPresent()) {
-            transaction.setResult(TransactionResult.PROHIBITED);
-            info.add("ip");
+        resultCounters.get(verdict.getResult()).increment();
+        for (String reason : verdict.getReasons()) {
+            reasonCounter(reason).increment();
         }
     }
 
     /**
-     * Checks if the transaction is correlated with another transaction based on the region and ip address.
+     * Returns the thresholds the production heuristics use.
+     *
+     * @return The configured thresholds
      */
-    private void checkIfCorrelationExists() {
-        List<Transaction> timeBeforeTransaction = transactionRepository.findAllByDateBetweenAndNumber(
-                transaction.getDate().minusHours(1),
-                transaction.getDate(),
-                transaction.getNumber()
-        );
-
-        long regionCount = timeBeforeTransaction.stream()
-                .map(Transaction::getRegion)
-                .filter(region -> !Objects.equals(region, transaction.getRegion()))
-                .distinct().count();
-
-        long ipCount = timeBeforeTransaction.stream()
-                .map(Transaction::getIp)
-                .filter(ip -> !Objects.equals(ip, transaction.getIp()))
-                .distinct().count();
-
-        if (regionCount == 2 && !Objects.equals(transaction.getResult(), TransactionResult.PROHIBITED.name())) {
-            transaction.setResult(TransactionResult.MANUAL_PROCESSING);
-            info.add("region-correlation");
-        }
-
-        if (ipCount == 2 && !Objects.equals(transaction.getResult(), TransactionResult.PROHIBITED.name())) {
-            transaction.setResult(TransactionResult.MANUAL_PROCESSING);
-            info.add("ip-correlation");
-        }
-
-        if (regionCount > 2) {
-            transaction.setResult(TransactionResult.PROHIBITED);
-            info.add("region-correlation");
-        }
-
-        if (ipCount > 2) {
-            transaction.setResult(TransactionResult.PROHIBITED);
-            info.add("ip-correlation");
-        }
+    public RuleThresholds getThresholds() {
+        return velocity
+                ? new RuleThresholds(CorrelationRule.MANUAL_COUNT, velocityMaxCounts, velocityMaxAmounts)
+                : new RuleThresholds(CorrelationRule.MANUAL_COUNT, null, null);
     }
 
     /**
-     * Checks if the amount of the transaction is too high based on the limit of the customers card.
+     * Creates the heuristics over the given data, e.g. for a shadow run or a backtest that keeps its own state. Every
+     * heuristic of the production rule set is part of the result, so other rule sets can't miss one.
+     *
+     * @param thresholds  The thresholds of the heuristics
+     * @param correlation Counts the regions and IP addresses of a card
+     * @param cards       Returns the state of a card by numeric key
+     * @param velocity    Returns the velocity counts of a card, only used if the thresholds enable velocity
+     * @return The heuristics, in any order
      */
-    private void checkIfAmountIsTooHigh() {
-        Card card = cardRepository.findByNumber(transaction.getNumber()).orElseThrow(AssertionError::new);
-
-        int allowedLimit = card.getAllowedLimit();
-        int manualLimit = card.getManualLimit();
-
-        if (transaction.getAmount() > allowedLimit && transaction.getAmount() <= manualLimit
-                && !Objects.equals(transaction.getResult(), TransactionResult.PROHIBITED.name())) {
-
-            transaction.setResult(TransactionResult.MANUAL_PROCESSING);
-            info.add("amount");
-        }
-
-        if (transaction.getAmount() > manualLimit) {
-            if (!Objects.equals(transaction.getResult(), TransactionResult.PROHIBITED.name())) {
-                info.clear();
-            }
-            info.add("amount");
-            transaction.setResult(TransactionResult.PROHIBITED);
+    public List<Rule> createRules(RuleThresholds thresholds, CorrelationRule.Source correlation,
+                                  LongFunction<CardState> cards, VelocityRule.Source velocity) {
+        List<Rule> rules = new ArrayList<>(List.of(
+                new StolenCardRule(stolenCardIndex),
+                new SuspiciousIPRule(suspiciousIPIndex),
+                new CorrelationRule(correlation, thresholds.getCorrelationCount()),
+                new AmountRule(cards)
+        ));
+        if (thresholds.isVelocity()) {
+            rules.add(new VelocityRule(velocity, thresholds.getVelocityMaxCounts(),
+                    thresholds.getVelocityMaxAmounts()));
         }
+        return rules;
     }
 
     /**
-     * Helper method that formats the info of the transaction.
+     * Runs the heuristics against the given context without modifying any transaction.
      *
-     * @return Formatted info of the transaction.
+     * @param context The evaluation context of the transaction
+     * @return The verdict containing result and info of the transaction
      */
-    private String formatInfo() {
-        if (Objects.equals(transaction.getResult(), TransactionResult.ALLOWED.name())) {
-            info.add("none");
-        }
+    public Verdict evaluate(EvaluationContext context) {
+        return ruleSet.evaluate(context);
+    }
 
-        return String.join(", ", info);
+    private Counter reasonCounter(String reason) {
+        return reasonCounters.computeIfAbsent(reason, key -> Counter.builder("antifraud.decision.reasons")
+                .description("Reasons reported for transactions that were not allowed")
+                .tag("reason", key)
+                .register(meterRegistry));
     }
 }
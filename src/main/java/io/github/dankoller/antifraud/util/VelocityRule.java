@@ -0,0 +1,72 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.VelocityCounts;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sends transactions to manual processing if the card was used too often or for too much money within one of the
+ * velocity windows, including the transaction being verified. The counts are kept in memory by the
+ * {@link VelocityStore}, so the rule is cheap.
+ */
+public class VelocityRule implements Rule {
+
+    private final Source source;
+    private final long[] maxCounts;
+    private final long[] maxAmounts;
+
+    /**
+     * Creates a new velocity rule.
+     *
+     * @param source     Returns the counts of a card, usually {@link VelocityStore#count}
+     * @param maxCounts  Maximum number of transactions per window, in the order of {@link VelocityStore#WINDOWS}
+     * @param maxAmounts Maximum total amount per window, in the order of {@link VelocityStore#WINDOWS}
+     */
+    public VelocityRule(Source source, long[] maxCounts, long[] maxAmounts) {
+        if (maxCounts.length != VelocityStore.WINDOWS.size() || maxAmounts.length != VelocityStore.WINDOWS.size()) {
+            throw new IllegalArgumentException("Expected one limit per window " + VelocityStore.WINDOWS);
+        }
+        this.source = source;
+        this.maxCounts = maxCounts.clone();
+        this.maxAmounts = maxAmounts.clone();
+    }
+
+    @Override
+    public String getName() {
+        return "velocity";
+    }
+
+    @Override
+    public int getCost() {
+        return 25;
+    }
+
+    @Override
+    public TransactionResult getMaxOutcome() {
+        return TransactionResult.MANUAL_PROCESSING;
+    }
+
+    @Override
+    public void apply(EvaluationContext context, Verdict verdict) {
+        VelocityCounts counts = source.count(context.getNumberKey(), context.getDate());
+
+        for (int window = 0; window < maxCounts.length; window++) {
+            if (counts.getCount(window) + 1 > maxCounts[window]
+                    || counts.getAmount(window) + context.getAmount() > maxAmounts[window]) {
+                verdict.add(TransactionResult.MANUAL_PROCESSING, "velocity");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the count and total amount of the transactions of a card within every window that ends at the given
+     * time, not counting the transaction being verified.
+     */
+    @FunctionalInterface
+    public interface Source {
+        VelocityCounts count(long numberKey, LocalDateTime date);
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Result and reasons collected while verifying a single transaction. A verdict is created per verification and never
+ * shared between requests.
+ */
+public class Verdict {
+
+    private TransactionResult result = TransactionResult.ALLOWED;
+    private final Set<String> info = new TreeSet<>();
+
+    public TransactionResult getResult() {
+        return result;
+    }
+
+    public boolean isProhibited() {
+        return result == TransactionResult.PROHIBITED;
+    }
+
+    /**
+     * Adds a finding of a rule. A more severe result replaces the current one together with its reasons, a less severe
+     * one is ignored, so the info only ever lists the reasons for the final result.
+     *
+     * @param result The result the rule asks for (MANUAL_PROCESSING or PROHIBITED)
+     * @param reason The reason reported in the info
+     */
+    void add(TransactionResult result, String reason) {
+        int difference = severity(result) - severity(this.result);
+        if (difference < 0) return;
+
+        if (difference > 0) {
+            this.result = result;
+            info.clear();
+        }
+        info.add(reason);
+    }
+
+    /**
+     * Adds the findings of another verdict, e.g. of a rule that ran on another thread.
+     *
+     * @param other The verdict to be merged into this one
+     */
+    void merge(Verdict other) {
+        for (String reason : other.info) {
+            add(other.result, reason);
+        }
+    }
+
+    /**
+     * Orders the results from ALLOWED to PROHIBITED, the declaration order of the enum differs.
+     *
+     * @param result The result
+     * @return The severity of the result, higher is more severe
+     */
+    static int severity(TransactionResult result) {
+        switch (result) {
+            case PROHIBITED:
+                return 2;
+            case MANUAL_PROCESSING:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the reasons that are reported for the result in alphabetical order.
+     *
+     * @return The reasons, empty if the transaction is allowed
+     */
+    public Set<String> getReasons() {
+        if (result == TransactionResult.ALLOWED) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(info);
+    }
+
+    /**
+     * Returns the reasons for the result in alphabetical order, or 'none' if the transaction is allowed.
+     *
+     * @return Formatted info of the transaction.
+     */
+    public String getInfo() {
+        if (result == TransactionResult.ALLOWED) return "none";
+
+        return String.join(", ", getReasons());
+    }
+}
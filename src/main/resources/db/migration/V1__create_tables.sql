@@ -0,0 +1,54 @@
+-- Schema as created by ddl-auto=update before the migrations were introduced. Existing databases are baselined below
+-- this version, so the statements must not fail if the tables are already there.
+
+CREATE TABLE IF NOT EXISTS card
+(
+    id            BIGINT       NOT NULL,
+    allowed_limit INTEGER      NOT NULL,
+    is_locked     BIT          NOT NULL,
+    manual_limit  INTEGER      NOT NULL,
+    number        VARCHAR(255),
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS ipaddress
+(
+    id BIGINT NOT NULL,
+    ip VARCHAR(255),
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS transaction
+(
+    id       BIGINT NOT NULL,
+    amount   BIGINT,
+    date     DATETIME(6),
+    feedback VARCHAR(255),
+    ip       VARCHAR(255),
+    number   VARCHAR(255),
+    region   VARCHAR(255),
+    result   VARCHAR(255),
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS `user`
+(
+    id                    BIGINT NOT NULL AUTO_INCREMENT,
+    is_account_non_locked BIT    NOT NULL,
+    name                  VARCHAR(255),
+    password              VARCHAR(255),
+    role                  VARCHAR(255),
+    username              VARCHAR(255),
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+-- Id source of cards, IP addresses and transactions (Hibernate emulates the sequence with a table on MySQL)
+CREATE TABLE IF NOT EXISTS hibernate_sequence
+(
+    next_val BIGINT
+) ENGINE = InnoDB;
+
+INSERT INTO hibernate_sequence (next_val)
+SELECT 1
+FROM DUAL
+WHERE NOT EXISTS(SELECT * FROM hibernate_sequence);
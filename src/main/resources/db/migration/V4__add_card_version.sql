@@ -0,0 +1,2 @@
+-- Optimistic locking of cards (see Card.version), existing cards start at version 0
+ALTER TABLE card ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
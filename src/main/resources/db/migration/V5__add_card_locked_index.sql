@@ -0,0 +1,2 @@
+-- Pages and exports of the stolen cards seek through the locked cards in id order
+CREATE INDEX idx_card_is_locked_id ON card (is_locked, id);
@@ -0,0 +1,71 @@
+package io.github.dankoller.antifraud.auth;
+
+import io.github.dankoller.antifraud.entity.user.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.servlet.FilterChain;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends requests through the filter and checks the authentication the rest of the chain sees.
+ */
+class BearerTokenFilterTest {
+
+    private final TokenService tokenService = TokenServiceTest.createService(900);
+    private final BearerTokenFilter filter = new BearerTokenFilter(tokenService, new RestAuthenticationEntryPoint());
+
+    private final AtomicReference<Authentication> authentication = new AtomicReference<>();
+    private final FilterChain chain = (request, response) ->
+            authentication.set(SecurityContextHolder.getContext().getAuthentication());
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void roleIsTakenFromClaims() throws Exception {
+        String token = tokenService.issue(new User("John Doe", "JohnDoe", "secret", "ROLE_SUPPORT", true)).getValue();
+
+        MockHttpServletResponse response = send("Bearer " + token);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(authentication.get().getName()).isEqualTo("JohnDoe");
+        assertThat(authentication.get().getAuthorities()).extracting(GrantedAuthority::getAuthority)
+                .containsExactly("ROLE_SUPPORT");
+    }
+
+    @Test
+    void invalidTokenIsUnauthorized() throws Exception {
+        MockHttpServletResponse response = send("Bearer JohnDoe.ROLE_ADMINISTRATOR.0.9999999999999.AAAA");
+
+        assertThat(response.getStatus()).isEqualTo(401);
+        assertThat(authentication.get()).isNull();
+    }
+
+    @Test
+    void requestWithoutTokenIsPassedOn() throws Exception {
+        MockHttpServletResponse response = send(null);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(authentication.get()).isNull();
+    }
+
+    private MockHttpServletResponse send(String authorization) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/antifraud/history");
+        if (authorization != null) request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
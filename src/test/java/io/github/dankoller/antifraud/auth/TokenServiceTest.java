@@ -0,0 +1,77 @@
+package io.github.dankoller.antifraud.auth;
+
+import io.github.dankoller.antifraud.entity.user.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Issues tokens and checks that only untouched, unexpired and unrevoked ones are accepted.
+ */
+class TokenServiceTest {
+
+    private static final User USER = new User("John Doe", "JohnDoe", "secret", "ROLE_MERCHANT", true);
+
+    @Test
+    void issuedTokenCarriesUsernameAndRole() {
+        TokenService tokenService = createService(900);
+
+        TokenService.Claims claims = tokenService.verify(tokenService.issue(USER).getValue());
+
+        assertThat(claims).isNotNull();
+        assertThat(claims.getUsername()).isEqualTo("JohnDoe");
+        assertThat(claims.getRole()).isEqualTo("ROLE_MERCHANT");
+    }
+
+    @Test
+    void tamperedTokenIsRejected() {
+        TokenService tokenService = createService(900);
+        String token = tokenService.issue(USER).getValue();
+
+        // Raising the role keeps the old signature
+        assertThat(tokenService.verify(token.replace("ROLE_MERCHANT", "ROLE_ADMINISTRATOR"))).isNull();
+        // A signature of another key
+        assertThat(createService(900).verify(token)).isNull();
+        // Signatures that can't be decoded or are missing
+        assertThat(tokenService.verify(token.substring(0, token.lastIndexOf('.') + 1) + "!!")).isNull();
+        assertThat(tokenService.verify("JohnDoe")).isNull();
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        TokenService tokenService = createService(0);
+
+        assertThat(tokenService.verify(tokenService.issue(USER).getValue())).isNull();
+    }
+
+    @Test
+    void revokedTokenIsRejected() throws InterruptedException {
+        TokenService tokenService = createService(900);
+        String token = tokenService.issue(USER).getValue();
+        String otherToken = tokenService.issue(new User("Jane Doe", "JaneDoe", "secret", "ROLE_SUPPORT", true))
+                .getValue();
+
+        tokenService.revoke("JohnDoe");
+
+        assertThat(tokenService.verify(token)).isNull();
+        assertThat(tokenService.verify(otherToken)).isNotNull();
+        // Tokens issued after the revocation are valid again
+        Thread.sleep(5);
+        assertThat(tokenService.verify(tokenService.issue(USER).getValue())).isNotNull();
+    }
+
+    static TokenService createService(long ttlSeconds) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+
+        TokenService tokenService = new TokenService();
+        ReflectionTestUtils.setField(tokenService, "secret", Base64.getEncoder().encodeToString(secret));
+        ReflectionTestUtils.setField(tokenService, "ttlSeconds", ttlSeconds);
+        tokenService.init();
+        return tokenService;
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lets feedback publish new limits while a cache miss is still reading the old card from the database.
+ */
+class CardStateCacheTest {
+
+    private static final String NUMBER = "4000008449433403";
+
+    @Test
+    void lateMissDoesNotOverwriteNewerLimits() {
+        Card stale = card(200, 0);
+        Card changed = card(150, 1);
+
+        CardRepository cardRepository = mock(CardRepository.class);
+        CardStateCache cache = createCache(cardRepository);
+        // Feedback commits after the miss read the card, but before the miss caches it
+        when(cardRepository.findByNumberKey(stale.getNumberKey())).thenAnswer(invocation -> {
+            cache.put(changed);
+            return Optional.of(stale);
+        });
+
+        assertThat(cache.get(stale.getNumberKey()).getAllowedLimit()).isEqualTo(150);
+        assertThat(cache.get(stale.getNumberKey()).getAllowedLimit()).isEqualTo(150);
+    }
+
+    @Test
+    void newerVersionReplacesEntry() {
+        CardStateCache cache = createCache(mock(CardRepository.class));
+
+        cache.put(card(200, 0));
+        cache.put(card(150, 1));
+        cache.put(card(200, 0));
+
+        assertThat(cache.get(card(0, 0).getNumberKey()).getAllowedLimit()).isEqualTo(150);
+    }
+
+    private static Card card(int allowedLimit, long version) {
+        Card card = new Card(NUMBER, false);
+        card.setAllowedLimit(allowedLimit);
+        ReflectionTestUtils.setField(card, "version", version);
+        return card;
+    }
+
+    private static CardStateCache createCache(CardRepository cardRepository) {
+        CardStateCache cache = new CardStateCache();
+        ReflectionTestUtils.setField(cache, "cardRepository", cardRepository);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 16);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fills the correlation windows up to their bound and checks how many are dropped at once.
+ */
+class CardWindowStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 12, 0);
+
+    @Test
+    void evictionFreesRoomForManyNewCards() {
+        CardWindowStore store = createStore(100);
+        for (long card = 0; card < 100; card++) {
+            store.correlate(card, START, Region.EAP, "192.168.1.1");
+        }
+
+        // All cards are active, so arbitrary ones are dropped, but down to the low-water mark instead of just one
+        store.correlate(100, START, Region.EAP, "192.168.1.1");
+        assertThat(store.size()).isEqualTo(91);
+        for (long card = 101; card < 110; card++) {
+            store.correlate(card, START, Region.EAP, "192.168.1.1");
+        }
+        assertThat(store.size()).isEqualTo(100);
+
+        // Two hours later all of them are idle
+        store.correlate(110, START.plusHours(2), Region.EAP, "192.168.1.1");
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    private static CardWindowStore createStore(int maxCards) {
+        // Every card was used at the start, so its window isn't idle before the correlation window passed
+        Transaction previous = new Transaction();
+        previous.setIp("192.168.1.2");
+        previous.setRegion(Region.ECA);
+        previous.setDate(START);
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.findAllByNumberKeyAndDateGreaterThanEqual(anyLong(), any()))
+                .thenReturn(List.of(previous));
+
+        CardWindowStore store = new CardWindowStore();
+        ReflectionTestUtils.setField(store, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(store, "transactionWriter", new TransactionWriter());
+        ReflectionTestUtils.setField(store, "maxCards", maxCards);
+        return store;
+    }
+}
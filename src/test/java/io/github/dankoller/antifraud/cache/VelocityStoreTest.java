@@ -0,0 +1,160 @@
+package io.github.dankoller.antifraud.cache;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.util.CardValidator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the bucketed velocity counters against the windows they approximate.
+ */
+class VelocityStoreTest {
+
+    private static final String NUMBER = "4000008449433403";
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 12, 0);
+
+    private final VelocityStore store = new VelocityStore();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(store, "maxCards", 100);
+    }
+
+    @Test
+    void windowsForgetOldTransactions() {
+        store.record(transaction(START, 100));
+        store.record(transaction(START.plusSeconds(30), 200));
+        long key = transaction(START, 0).getNumberKey();
+
+        VelocityCounts counts = store.count(key, START.plusSeconds(40));
+        assertThat(counts.getCount(0)).isEqualTo(2);
+        assertThat(counts.getAmount(0)).isEqualTo(300);
+
+        // The first transaction left the minute window but is still within 10 minutes and 24 hours
+        counts = store.count(key, START.plusSeconds(75));
+        assertThat(counts.getCount(0)).isEqualTo(1);
+        assertThat(counts.getAmount(0)).isEqualTo(200);
+        assertThat(counts.getCount(1)).isEqualTo(2);
+        assertThat(counts.getCount(2)).isEqualTo(2);
+
+        counts = store.count(key, START.plusHours(2));
+        assertThat(counts.getCount(1)).isZero();
+        assertThat(counts.getAmount(2)).isEqualTo(300);
+
+        // The ring wrapped around, the old bucket is started over
+        store.record(transaction(START.plusDays(1).plusMinutes(5), 50));
+        counts = store.count(key, START.plusDays(1).plusMinutes(5));
+        assertThat(counts.getCount(2)).isEqualTo(1);
+        assertThat(counts.getAmount(2)).isEqualTo(50);
+    }
+
+    @Test
+    void removeTakesTransactionBack() {
+        Transaction transaction = transaction(START, 100);
+        store.record(transaction(START, 300));
+        store.record(transaction);
+        store.remove(transaction);
+
+        VelocityCounts counts = store.count(transaction.getNumberKey(), START);
+        for (int window = 0; window < VelocityStore.WINDOWS.size(); window++) {
+            assertThat(counts.getCount(window)).isEqualTo(1);
+            assertThat(counts.getAmount(window)).isEqualTo(300);
+        }
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws Exception {
+        int threads = 8;
+        int transactions = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < transactions; i++) {
+                        // Spread over three buckets, so the threads race on starting new buckets
+                        store.record(transaction(START.plusSeconds(i * 30L / transactions), 3));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        VelocityCounts counts = store.count(transaction(START, 0).getNumberKey(), START.plusSeconds(30));
+        assertThat(counts.getCount(0)).isEqualTo(threads * transactions);
+        assertThat(counts.getAmount(0)).isEqualTo(threads * transactions * 3L);
+        assertThat(counts.getCount(2)).isEqualTo(threads * transactions);
+    }
+
+    @Test
+    void evictionFreesRoomForManyNewCards() {
+        for (int card = 0; card < 100; card++) {
+            store.record(transaction(card, START, 100));
+        }
+
+        // All cards are active, so arbitrary ones are dropped, but down to the low-water mark instead of just one
+        store.record(transaction(100, START, 100));
+        assertThat(store.size()).isEqualTo(91);
+        for (int card = 101; card < 110; card++) {
+            store.record(transaction(card, START, 100));
+        }
+        assertThat(store.size()).isEqualTo(100);
+
+        // A day later all of them are idle
+        store.record(transaction(110, START.plusDays(2), 100));
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void unboundedStoreDropsIdleCards() {
+        // Like the store of a backtest partition, which replays months of transactions
+        VelocityStore unbounded = new VelocityStore(Integer.MAX_VALUE);
+        for (int card = 0; card < 2_000; card++) {
+            unbounded.record(transaction(card, START.plusMinutes(card), 100));
+        }
+        assertThat(unbounded.size()).isEqualTo(2_000);
+
+        // Counters of cards without transactions in the last day go once the number of cards doubled
+        for (int card = 2_000; card < 4_100; card++) {
+            unbounded.record(transaction(card, START.plusDays(10).plusMinutes(card), 100));
+        }
+        assertThat(unbounded.size()).isLessThan(4_000);
+    }
+
+    private static Transaction transaction(LocalDateTime date, long amount) {
+        return transaction(NUMBER, date, amount);
+    }
+
+    private static Transaction transaction(int card, LocalDateTime date, long amount) {
+        String prefix = String.format("400000000%06d", card);
+        for (int digit = 0; digit <= 9; digit++) {
+            if (!CardValidator.isNonValid(prefix + digit)) return transaction(prefix + digit, date, amount);
+        }
+        throw new AssertionError();
+    }
+
+    private static Transaction transaction(String number, LocalDateTime date, long amount) {
+        Transaction transaction = new Transaction();
+        transaction.setNumber(number);
+        transaction.setAmount(amount);
+        transaction.setIp("192.168.1.1");
+        transaction.setRegion(Region.EAP);
+        transaction.setDate(date);
+        return transaction;
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.dankoller.antifraud.persistence;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that a row the database rejects doesn't stall the write-behind queue.
+ */
+class TransactionWriterTest {
+
+    @Test
+    void rejectedRowIsDroppedAndOthersAreStored() throws Exception {
+        List<Long> stored = new ArrayList<>();
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.saveAll(anyList())).thenThrow(new DataIntegrityViolationException("poison row"));
+        when(transactionRepository.save(any())).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            if (transaction.getAmount() < 0) throw new DataIntegrityViolationException("poison row");
+            stored.add(transaction.getAmount());
+            return transaction;
+        });
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TransactionWriter writer = new TransactionWriter();
+        ReflectionTestUtils.setField(writer, "enabled", true);
+        ReflectionTestUtils.setField(writer, "queueCapacity", 100);
+        ReflectionTestUtils.setField(writer, "batchSize", 10);
+        ReflectionTestUtils.setField(writer, "offerTimeoutMs", 50L);
+        ReflectionTestUtils.setField(writer, "flushIntervalMs", 10L);
+        ReflectionTestUtils.setField(writer, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(writer, "meterRegistry", meterRegistry);
+        writer.start();
+
+        writer.writeAll(List.of(transaction(1), transaction(-1), transaction(2)));
+        writer.stop();
+
+        assertThat(stored).containsExactly(1L, 2L);
+        assertThat(meterRegistry.counter("antifraud.write_behind.dropped").count()).isEqualTo(1);
+    }
+
+    private static Transaction transaction(long amount) {
+        Transaction transaction = new Transaction();
+        transaction.setNumber("4000008449433403");
+        transaction.setAmount(amount);
+        transaction.setIp("10.0.0.1");
+        transaction.setRegion(Region.EAP);
+        transaction.setDate(LocalDateTime.of(2022, 10, 13, 0, 0));
+        return transaction;
+    }
+}
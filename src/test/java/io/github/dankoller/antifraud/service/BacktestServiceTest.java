@@ -0,0 +1,101 @@
+package io.github.dankoller.antifraud.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.request.BacktestRequest;
+import io.github.dankoller.antifraud.response.BacktestReport;
+import io.github.dankoller.antifraud.util.CardValidator;
+import io.github.dankoller.antifraud.util.TransactionValidator;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Replays a generated export with one and with several threads. Every card is replayed in order by a single
+ * partition, so the reports must be the same.
+ */
+class BacktestServiceTest {
+
+    private static final String STOLEN = "4000008449433403";
+    private static final String[] NUMBERS = {
+            STOLEN, "4000003305160034", "4000002306102375", "4000003059657524", "4000001111111118"
+    };
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 0, 0);
+
+    @Test
+    void parallelReplayMatchesSingleThreadedReplay() {
+        String export = export(5_000);
+
+        BacktestReport reference = createService(1).replayExport(stream(export), new BacktestRequest());
+        BacktestReport report = createService(4).replayExport(stream(export), new BacktestRequest());
+
+        assertThat(report.getTransactions()).isEqualTo(4_999);
+        assertThat(report.getSkipped()).isEqualTo(1);
+        assertThat(report.getDecisions()).isEqualTo(reference.getDecisions());
+        assertThat(report.getChangedSample()).isEqualTo(reference.getChangedSample());
+        assertThat(report.getReplayedMatchingFeedback()).isEqualTo(reference.getReplayedMatchingFeedback());
+        assertThat(report.getDecisions().get("ALLOWED").get("PROHIBITED")).isPositive();
+    }
+
+    @Test
+    void thresholdsChangeDecisions() {
+        String export = export(1_000);
+        BacktestRequest request = new BacktestRequest();
+        request.setAllowedLimit(0);
+        request.setManualLimit(0);
+
+        BacktestReport report = createService(2).replayExport(stream(export), request);
+
+        assertThat(report.getDecisions().get("ALLOWED").get("ALLOWED")).isZero();
+        assertThat(report.getChanged()).isPositive();
+    }
+
+    // Every transaction is stored as ALLOWED, one line in the middle is broken
+    private static String export(int size) {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        for (int id = 1; id <= size; id++) {
+            if (id == size / 2) {
+                lines.add("{\"transactionId\": " + id + ", \"amount\": \"x\"}");
+                continue;
+            }
+            lines.add(String.format("{\"transactionId\": %d, \"amount\": %d, \"ip\": \"10.0.0.%d\", "
+                            + "\"number\": \"%s\", \"region\": \"%s\", \"date\": \"%s\", \"result\": \"ALLOWED\", "
+                            + "\"feedback\": \"%s\"}",
+                    id, 1 + random.nextInt(3000), 1 + random.nextInt(5), NUMBERS[random.nextInt(NUMBERS.length)],
+                    REGIONS[random.nextInt(REGIONS.length)], START.plusSeconds(id * 60L),
+                    random.nextInt(20) == 0 ? "PROHIBITED" : ""));
+        }
+        return String.join("\n", lines);
+    }
+
+    private static ByteArrayInputStream stream(String export) {
+        return new ByteArrayInputStream(export.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BacktestService createService(int parallelism) {
+        StolenCardIndex stolenCardIndex = new StolenCardIndex();
+        stolenCardIndex.add(CardValidator.toKey(STOLEN));
+
+        TransactionValidator validator = new TransactionValidator();
+        ReflectionTestUtils.setField(validator, "stolenCardIndex", stolenCardIndex);
+        ReflectionTestUtils.setField(validator, "suspiciousIPIndex", new SuspiciousIPIndex());
+
+        BacktestService service = new BacktestService();
+        ReflectionTestUtils.setField(service, "transactionValidator", validator);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper().registerModule(new JavaTimeModule()));
+        ReflectionTestUtils.setField(service, "parallelism", parallelism);
+        return service;
+    }
+}
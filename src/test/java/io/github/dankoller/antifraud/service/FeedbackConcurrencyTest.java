@@ -0,0 +1,168 @@
+package io.github.dankoller.antifraud.service;
+
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.request.FeedbackRequest;
+import io.github.dankoller.antifraud.response.FeedbackResult;
+import io.github.dankoller.antifraud.util.CardValidator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends feedback for the transactions of a card from many threads at once. Every feedback lowers the limits the same
+ * way, so the order doesn't matter and the final limits must equal those of applying all feedback one by one.
+ */
+@SpringBootTest
+@SuppressWarnings("unused")
+class FeedbackConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS_PER_CARD = 24;
+    private static final long AMOUNT = 10;
+    private static final String FEEDBACK = "PROHIBITED";
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    private final List<Card> cards = new ArrayList<>();
+    private final List<Transaction> transactions = new ArrayList<>();
+
+    @AfterEach
+    void deleteData() {
+        // The cards were changed by the feedback, so delete them by id instead of by their stale versions
+        transactions.forEach(transaction -> transactionRepository.deleteById(transaction.getId()));
+        cards.forEach(card -> cardRepository.deleteById(card.getId()));
+    }
+
+    @Test
+    void concurrentFeedbackOnOneCardLosesNoUpdate() throws Exception {
+        Card card = createCard(0);
+        List<Transaction> cardTransactions = createTransactions(card);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (Transaction transaction : cardTransactions) {
+            tasks.add(() -> transactionService.updateTransaction(transaction.getId(), FEEDBACK));
+        }
+        runConcurrently(tasks);
+
+        assertLimits(card, cardTransactions);
+    }
+
+    @Test
+    void concurrentBulkFeedbackOnSeveralCardsLosesNoUpdate() throws Exception {
+        List<Card> bulkCards = new ArrayList<>();
+        List<List<Transaction>> cardTransactions = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Card card = createCard(i);
+            bulkCards.add(card);
+            cardTransactions.add(createTransactions(card));
+        }
+
+        // Every batch holds one transaction of every card, so all batches need the locks of all cards
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS_PER_CARD; i++) {
+            List<FeedbackRequest> batch = new ArrayList<>();
+            for (List<Transaction> transactionsOfCard : cardTransactions) {
+                FeedbackRequest request = new FeedbackRequest();
+                request.setTransactionId(transactionsOfCard.get(i).getId());
+                request.setFeedback(FEEDBACK);
+                batch.add(request);
+            }
+            tasks.add(() -> {
+                List<FeedbackResult> results = transactionService.updateTransactions(batch);
+                assertThat(results).allMatch(result -> result.getStatus() == 200);
+                return results;
+            });
+        }
+        runConcurrently(tasks);
+
+        for (int i = 0; i < bulkCards.size(); i++) {
+            assertLimits(bulkCards.get(i), cardTransactions.get(i));
+        }
+    }
+
+    // Starts all tasks at once and fails on the first error of any of them
+    private static void runConcurrently(List<Callable<Object>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (Callable<Object> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertLimits(Card card, List<Transaction> cardTransactions) {
+        Card expected = new Card(card.getNumber(), false);
+        for (Transaction transaction : cardTransactions) {
+            TransactionService.changeLimit(expected, transaction, FEEDBACK);
+        }
+
+        Card stored = cardRepository.findByNumberKey(card.getNumberKey()).orElseThrow();
+        assertThat(stored.getAllowedLimit()).isEqualTo(expected.getAllowedLimit());
+        assertThat(stored.getManualLimit()).isEqualTo(expected.getManualLimit());
+    }
+
+    private Card createCard(int index) {
+        String prefix = String.format("400000777%06d", index);
+        for (int digit = 0; digit <= 9; digit++) {
+            if (!CardValidator.isNonValid(prefix + digit)) {
+                Card card = cardRepository.save(new Card(prefix + digit, false));
+                cards.add(card);
+                return card;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private List<Transaction> createTransactions(Card card) {
+        List<Transaction> created = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS_PER_CARD; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setNumber(card.getNumber());
+            transaction.setAmount(AMOUNT);
+            transaction.setIp("127.0.0.1");
+            transaction.setRegion(Region.ECA);
+            transaction.setDate(LocalDateTime.of(2022, 10, 13, 14, 0).plusMinutes(i));
+            transaction.setResult(TransactionResult.ALLOWED);
+            transaction.setInfo("none");
+            created.add(transactionRepository.save(transaction));
+        }
+        transactions.addAll(created);
+        return created;
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.dankoller.antifraud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the single-pass Luhn check with a straightforward reference on generated digit strings and checks that
+ * every valid number is parsed into its numeric value.
+ */
+class CardValidatorTest {
+
+    private static final int SAMPLES = 200_000;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void randomNumbersAgreeWithReference() {
+        int valid = 0;
+
+        for (int i = 0; i < SAMPLES; i++) {
+            StringBuilder number = new StringBuilder();
+            for (int j = 0; j < 16; j++) {
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+
+            boolean expected = isValidReference(number.toString());
+            assertThat(!CardValidator.isNonValid(number.toString())).as(number.toString()).isEqualTo(expected);
+            if (expected) {
+                assertThat(CardValidator.toKey(number.toString())).isEqualTo(Long.parseLong(number.toString()));
+                valid++;
+            }
+        }
+
+        // Roughly every tenth number has a matching check digit
+        assertThat(valid).isBetween(SAMPLES / 12, SAMPLES / 8);
+    }
+
+    @Test
+    void malformedNumbersAreInvalid() {
+        assertThat(CardValidator.toKey(null)).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("")).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("400000844943000")).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("40000084494300030")).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("4000 08449430003")).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("400000844943000a")).isEqualTo(CardValidator.INVALID);
+        assertThat(CardValidator.toKey("4000008449430003")).isEqualTo(4000008449430003L);
+        assertThat(CardValidator.toKey("9999999999999995")).isEqualTo(9999999999999995L);
+    }
+
+    private static boolean isValidReference(String number) {
+        int sum = 0;
+        boolean doubled = false;
+
+        for (int i = number.length() - 1; i >= 0; i--) {
+            int digit = number.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+
+        return sum % 10 == 0;
+    }
+}
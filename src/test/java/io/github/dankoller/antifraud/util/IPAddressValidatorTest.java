@@ -0,0 +1,111 @@
+package io.github.dankoller.antifraud.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the hand-written IPv4 parser with the regular expression it replaced on generated input: random octets,
+ * near-misses (leading zeros, out-of-range values, missing or extra parts) and random strings over the relevant
+ * characters. Every valid address must also be packed to the same value as the octets it was built from.
+ */
+class IPAddressValidatorTest {
+
+    private static final Pattern IPV4 =
+            Pattern.compile("^(([0-9]|[1-9][0-9]|1[0-9][0-9]|2[0-4][0-9]|25[0-5])(\\.(?!$)|$)){4}$");
+
+    private static final int SAMPLES = 200_000;
+    private static final String ALPHABET = "0123456789...12 a/-";
+
+    private final Random random = new Random(42);
+
+    @Test
+    void validAddressesArePackedLikeTheirOctets() {
+        for (int i = 0; i < SAMPLES; i++) {
+            int[] octets = {random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+            String ip = octets[0] + "." + octets[1] + "." + octets[2] + "." + octets[3];
+            long expected = ((long) octets[0] << 24) | (octets[1] << 16) | (octets[2] << 8) | octets[3];
+
+            assertThat(IPAddressValidator.parse(ip)).as(ip).isEqualTo(expected);
+            assertThat(IPAddressValidator.pack(ip)).as(ip).isEqualTo((int) expected);
+            assertThat(IPAddressValidator.isNonValidIp(ip)).as(ip).isFalse();
+        }
+    }
+
+    @Test
+    void nearMissesAgreeWithRegex() {
+        for (int i = 0; i < SAMPLES; i++) {
+            StringBuilder ip = new StringBuilder();
+            int parts = 1 + random.nextInt(6);
+            for (int part = 0; part < parts; part++) {
+                if (part > 0) ip.append(random.nextInt(20) == 0 ? ".." : ".");
+                ip.append(randomOctet());
+            }
+            if (random.nextInt(20) == 0) ip.insert(random.nextInt(ip.length() + 1), '.');
+
+            assertAgreesWithRegex(ip.toString());
+        }
+    }
+
+    @Test
+    void randomStringsAgreeWithRegex() {
+        for (int i = 0; i < SAMPLES; i++) {
+            StringBuilder ip = new StringBuilder();
+            int length = random.nextInt(18);
+            for (int j = 0; j < length; j++) {
+                ip.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+
+            assertAgreesWithRegex(ip.toString());
+        }
+    }
+
+    @Test
+    void edgeCases() {
+        for (String ip : new String[]{"", ".", "0.0.0.0", "255.255.255.255", "256.0.0.0", "01.0.0.0", "1.2.3.4.",
+                ".1.2.3.4", "1.2.3", "1.2.3.4.5", "1..2.3", "1.2.3.-4", "1.2.3.4 ", "١.2.3.4", "999.0.0.0"}) {
+            assertAgreesWithRegex(ip);
+        }
+        assertThat(IPAddressValidator.parse("255.255.255.255")).isEqualTo(0xFFFFFFFFL);
+        assertThat(IPAddressValidator.parse(null)).isEqualTo(IPAddressValidator.INVALID);
+    }
+
+    @Test
+    void cidrRanges() {
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.0/16")).isFalse();
+        assertThat(IPAddressValidator.isNonValidCidr("0.0.0.0/0")).isFalse();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.1/32")).isFalse();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.1/16")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.0/33")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.0/")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0.0/1a")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.4.0/16")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.0.0.0/08")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("0.0.0.0/00")).isTrue();
+        assertThat(IPAddressValidator.isNonValidCidr("10.0.0.0/8")).isFalse();
+        assertThat(IPAddressValidator.pack("10.4.0.0/16")).isEqualTo(0x0A040000);
+    }
+
+    private String randomOctet() {
+        switch (random.nextInt(6)) {
+            case 0:
+                return "0" + random.nextInt(100);
+            case 1:
+                return String.valueOf(250 + random.nextInt(10));
+            case 2:
+                return String.valueOf(random.nextInt(1000));
+            case 3:
+                return "";
+            default:
+                return String.valueOf(random.nextInt(256));
+        }
+    }
+
+    private static void assertAgreesWithRegex(String ip) {
+        boolean expected = !IPV4.matcher(ip).matches();
+        assertThat(IPAddressValidator.isNonValidIp(ip)).as("'%s'", ip).isEqualTo(expected);
+    }
+}
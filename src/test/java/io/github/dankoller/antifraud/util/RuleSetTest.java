@@ -0,0 +1,171 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks how the rule set handles rules that run on an executor and miss the deadline.
+ */
+class RuleSetTest {
+
+    private static final EvaluationContext CONTEXT = new EvaluationContext(
+            "4000008449433403", 4000008449433403L, "192.168.1.1", Region.EAP, 100, LocalDateTime.now());
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void slowRuleDegradesToManualProcessing() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RuleSet ruleSet = new RuleSet(List.of(slowRule(), rule("fast", 20, true, TransactionResult.MANUAL_PROCESSING)),
+                true, meterRegistry, executor, Duration.ofMillis(50));
+
+        Verdict verdict = ruleSet.evaluate(CONTEXT);
+
+        assertThat(verdict.getResult()).isEqualTo(TransactionResult.MANUAL_PROCESSING);
+        assertThat(verdict.getInfo()).isEqualTo("fast, timeout");
+        assertThat(meterRegistry.counter("antifraud.heuristic.timeouts", "heuristic", "slow").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("antifraud.heuristic.timeouts", "heuristic", "fast").count()).isZero();
+    }
+
+    @Test
+    void prohibitionDoesNotWaitForSlowRule() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // The slow rule can at most require manual processing, so it can't add anything to a prohibited transaction
+        RuleSet ruleSet = new RuleSet(List.of(slowRule(TransactionResult.MANUAL_PROCESSING),
+                rule("stolen", 10, false, TransactionResult.PROHIBITED)),
+                true, meterRegistry, executor, Duration.ofSeconds(60));
+
+        long start = System.nanoTime();
+        Verdict verdict = ruleSet.evaluate(CONTEXT);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+        assertThat(verdict.getResult()).isEqualTo(TransactionResult.PROHIBITED);
+        assertThat(verdict.getInfo()).isEqualTo("stolen");
+        assertThat(meterRegistry.counter("antifraud.heuristic.timeouts", "heuristic", "slow").count()).isZero();
+        assertThat(meterRegistry.counter("antifraud.heuristic.skipped", "heuristic", "slow").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shortCircuitKeepsReasonsOfSameSeverity() {
+        List<Rule> rules = List.of(rule("stolen", 10, false, TransactionResult.PROHIBITED),
+                rule("ip", 15, false, TransactionResult.PROHIBITED),
+                cachedRule("amount", 20),
+                rule("velocity", 25, false, TransactionResult.MANUAL_PROCESSING));
+
+        Verdict sequential = new RuleSet(rules, true, null).evaluate(CONTEXT);
+        Verdict parallel = new RuleSet(rules, true, null, executor, Duration.ofSeconds(60)).evaluate(CONTEXT);
+
+        assertThat(sequential.getInfo()).isEqualTo("amount, ip, stolen");
+        assertThat(parallel.getInfo()).isEqualTo("amount, ip, stolen");
+    }
+
+    @Test
+    void prohibitionDoesNotRunBlockingRule() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // The slow rule could only add a reason and has nothing in memory, so it must neither run nor be waited for
+        List<Rule> rules = List.of(slowRule(), rule("stolen", 10, false, TransactionResult.PROHIBITED));
+
+        for (RuleSet ruleSet : List.of(new RuleSet(rules, true, meterRegistry),
+                new RuleSet(rules, true, meterRegistry, executor, Duration.ofSeconds(60)))) {
+            long start = System.nanoTime();
+            Verdict verdict = ruleSet.evaluate(CONTEXT);
+
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+            assertThat(verdict.getInfo()).isEqualTo("stolen");
+        }
+        assertThat(meterRegistry.counter("antifraud.heuristic.skipped", "heuristic", "slow").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("antifraud.heuristic.timeouts", "heuristic", "slow").count()).isZero();
+    }
+
+    // A blocking rule that finds its state in memory, so it also reports on a prohibited transaction
+    private static Rule cachedRule(String name, int cost) {
+        return new TestRule(name, cost, true, TransactionResult.PROHIBITED) {
+            @Override
+            public boolean applyCached(EvaluationContext context, Verdict verdict) {
+                apply(context, verdict);
+                return true;
+            }
+        };
+    }
+
+    // A blocking rule that only finishes after the test
+    private Rule slowRule() {
+        return slowRule(TransactionResult.PROHIBITED);
+    }
+
+    private Rule slowRule(TransactionResult maxOutcome) {
+        return new TestRule("slow", 30, true, maxOutcome) {
+            @Override
+            public void apply(EvaluationContext context, Verdict verdict) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                verdict.add(maxOutcome, getName());
+            }
+        };
+    }
+
+    private static Rule rule(String name, int cost, boolean mayBlock, TransactionResult result) {
+        return new TestRule(name, cost, mayBlock, result);
+    }
+
+    private static class TestRule implements Rule {
+        private final String name;
+        private final int cost;
+        private final boolean mayBlock;
+        private final TransactionResult result;
+
+        TestRule(String name, int cost, boolean mayBlock, TransactionResult result) {
+            this.name = name;
+            this.cost = cost;
+            this.mayBlock = mayBlock;
+            this.result = result;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public TransactionResult getMaxOutcome() {
+            return result;
+        }
+
+        @Override
+        public boolean mayBlock() {
+            return mayBlock;
+        }
+
+        @Override
+        public void apply(EvaluationContext context, Verdict verdict) {
+            verdict.add(result, name);
+        }
+    }
+}
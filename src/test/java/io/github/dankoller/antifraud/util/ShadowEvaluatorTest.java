@@ -0,0 +1,141 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.entity.transaction.TransactionResult;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import io.github.dankoller.antifraud.response.ShadowReport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Shadows transactions that production allows with a stricter velocity limit. The in-memory state is filled the way
+ * TransactionService does it, so the candidate must neither count the shadowed transaction nor later ones.
+ */
+class ShadowEvaluatorTest {
+
+    private static final String NUMBER = "4000008449433403";
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 0, 0);
+
+    private final VelocityStore velocityStore = new VelocityStore(16);
+
+    @Test
+    void candidateResultsAreComparedWithProduction() throws Exception {
+        ShadowEvaluator evaluator = createEvaluator(10);
+        try {
+            // The candidate allows two transactions per minute, the third one goes to manual processing. The
+            // transactions are all recorded before the candidate runs, like in a batch
+            List<ShadowEvaluator.Candidate> candidates = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                candidates.add(allowed(evaluator, START.plusSeconds(i)));
+            }
+            candidates.forEach(evaluator::submit);
+            awaitEvaluated(evaluator, 3);
+
+            ShadowReport report = evaluator.getReport();
+            assertThat(report.getDisagreements()).isEqualTo(1);
+            assertThat(report.getDecisions().get("ALLOWED").get("ALLOWED")).isEqualTo(2);
+            assertThat(report.getDecisions().get("ALLOWED").get("MANUAL_PROCESSING")).isEqualTo(1);
+            assertThat(report.getRecent()).singleElement()
+                    .satisfies(decision -> assertThat(decision.getShadowInfo()).isEqualTo("velocity"));
+        } finally {
+            evaluator.stop();
+        }
+    }
+
+    @Test
+    void fullQueueDropsTransactions() throws Exception {
+        ShadowEvaluator evaluator = createEvaluator(0);
+        try {
+            evaluator.submit(allowed(evaluator, START));
+
+            assertThat(evaluator.getReport().getDropped()).isEqualTo(1);
+            assertThat(evaluator.getReport().getQueued()).isZero();
+        } finally {
+            evaluator.stop();
+        }
+    }
+
+    private static void awaitEvaluated(ShadowEvaluator evaluator, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (evaluator.getReport().getEvaluated() < count) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // A transaction as TransactionService handles it: verified, captured and recorded
+    private ShadowEvaluator.Candidate allowed(ShadowEvaluator evaluator, LocalDateTime date) {
+        Transaction transaction = new Transaction();
+        transaction.setNumber(NUMBER);
+        transaction.setAmount(100L);
+        transaction.setIp("10.0.0.1");
+        transaction.setRegion(Region.EAP);
+        transaction.setDate(date);
+        transaction.setResult(TransactionResult.ALLOWED);
+        transaction.setInfo("none");
+        ShadowEvaluator.Candidate candidate = evaluator.capture(transaction);
+        velocityStore.record(transaction);
+        return candidate;
+    }
+
+    private ShadowEvaluator createEvaluator(int queueCapacity) {
+        Card card = new Card(NUMBER, false);
+        CardRepository cardRepository = mock(CardRepository.class);
+        when(cardRepository.findByNumberKey(anyLong())).thenReturn(Optional.of(card));
+
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.findAllByNumberKeyAndDateGreaterThanEqual(anyLong(), any())).thenReturn(List.of());
+
+        CardWindowStore cardWindowStore = new CardWindowStore();
+        ReflectionTestUtils.setField(cardWindowStore, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(cardWindowStore, "transactionWriter", new TransactionWriter());
+        ReflectionTestUtils.setField(cardWindowStore, "maxCards", 100_000);
+
+        CardStateCache cardStateCache = new CardStateCache();
+        ReflectionTestUtils.setField(cardStateCache, "cardRepository", cardRepository);
+        ReflectionTestUtils.setField(cardStateCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cardStateCache, "maxSize", 16);
+        ReflectionTestUtils.setField(cardStateCache, "ttlSeconds", 60L);
+        cardStateCache.init();
+
+        TransactionValidator validator = new TransactionValidator();
+        ReflectionTestUtils.setField(validator, "stolenCardIndex", new StolenCardIndex());
+        ReflectionTestUtils.setField(validator, "suspiciousIPIndex", new SuspiciousIPIndex());
+
+        ShadowEvaluator evaluator = new ShadowEvaluator();
+        ReflectionTestUtils.setField(evaluator, "enabled", true);
+        ReflectionTestUtils.setField(evaluator, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(evaluator, "correlationCount", CorrelationRule.MANUAL_COUNT);
+        ReflectionTestUtils.setField(evaluator, "velocity", true);
+        ReflectionTestUtils.setField(evaluator, "velocityMaxCounts", new long[]{2, 20, 100});
+        ReflectionTestUtils.setField(evaluator, "velocityMaxAmounts", new long[]{3000, 10000, 50000});
+        ReflectionTestUtils.setField(evaluator, "cardStateCache", cardStateCache);
+        ReflectionTestUtils.setField(evaluator, "cardWindowStore", cardWindowStore);
+        ReflectionTestUtils.setField(evaluator, "transactionValidator", validator);
+        ReflectionTestUtils.setField(evaluator, "velocityStore", velocityStore);
+        ReflectionTestUtils.setField(evaluator, "meterRegistry", new SimpleMeterRegistry());
+        evaluator.start();
+        return evaluator;
+    }
+}
@@ -0,0 +1,267 @@
+package io.github.dankoller.antifraud.util;
+
+import io.github.dankoller.antifraud.cache.CardStateCache;
+import io.github.dankoller.antifraud.cache.CardWindowStore;
+import io.github.dankoller.antifraud.cache.StolenCardIndex;
+import io.github.dankoller.antifraud.cache.SuspiciousIPIndex;
+import io.github.dankoller.antifraud.cache.VelocityStore;
+import io.github.dankoller.antifraud.entity.Card;
+import io.github.dankoller.antifraud.entity.Region;
+import io.github.dankoller.antifraud.entity.transaction.Transaction;
+import io.github.dankoller.antifraud.persistence.CardRepository;
+import io.github.dankoller.antifraud.persistence.TransactionRepository;
+import io.github.dankoller.antifraud.persistence.TransactionWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the heuristics from many threads at once and compares every verdict with a single-threaded reference run.
+ * The repositories are replaced by in-memory stand-ins, so no database is needed.
+ */
+class TransactionValidatorConcurrencyTest {
+
+    private static final int CARDS = 50;
+    private static final int HISTORY_SIZE = 3_000;
+    private static final int TRANSACTIONS = 20_000;
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 13, 0, 0);
+
+    private final Random random = new Random(42);
+    private final List<String> cardNumbers = new ArrayList<>();
+    private final Map<Long, Card> cards = new HashMap<>();
+    private final List<Transaction> history = new ArrayList<>();
+    // Cards whose correlation history was queried
+    private final Set<Long> loadedCards = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void createData() {
+        for (int i = 0; i < CARDS; i++) {
+            String number = withCheckDigit(String.format("400000000%06d", i));
+            Card card = new Card(number, false);
+            card.setAllowedLimit(100 + random.nextInt(400));
+            card.setManualLimit(card.getAllowedLimit() + random.nextInt(2000));
+            cardNumbers.add(number);
+            cards.put(card.getNumberKey(), card);
+        }
+
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history.add(randomTransaction());
+        }
+    }
+
+    @Test
+    void concurrentVerdictsMatchSingleThreadedReference() throws Exception {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            transactions.add(randomTransaction());
+        }
+
+        TransactionValidator reference = createValidator(false);
+        List<String> expected = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            expected.add(verify(reference, transaction));
+        }
+
+        TransactionValidator validator = createValidator(false);
+        int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> futures = transactions.stream()
+                    .map(transaction -> executor.submit(() -> verify(validator, transaction)))
+                    .collect(Collectors.toList());
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertThat(futures.get(i).get()).as("transaction %d", i).isEqualTo(expected.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The data must cover every outcome, otherwise the comparison proves little
+        assertThat(expected).anyMatch(verdict -> verdict.startsWith("ALLOWED"));
+        assertThat(expected).anyMatch(verdict -> verdict.startsWith("MANUAL_PROCESSING"));
+        assertThat(expected).anyMatch(verdict -> verdict.contains("card-number"));
+        assertThat(expected).anyMatch(verdict -> verdict.contains("ip-correlation"));
+        assertThat(expected).anyMatch(verdict -> verdict.contains("region-correlation"));
+    }
+
+    @Test
+    void parallelVerdictsMatchSequentialReference() throws Exception {
+        TransactionValidator reference = createValidator(false);
+        TransactionValidator validator = createValidator(false);
+        ReflectionTestUtils.setField(validator, "parallel", true);
+        ReflectionTestUtils.setField(validator, "threads", 4);
+        ReflectionTestUtils.setField(validator, "queueCapacity", 1000);
+        // Long enough to never be hit, timeouts are covered by RuleSetTest
+        ReflectionTestUtils.setField(validator, "timeoutMillis", 60_000L);
+        validator.init();
+
+        try {
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                Transaction transaction = randomTransaction();
+                assertThat(verify(validator, transaction)).as("transaction %d", i)
+                        .isEqualTo(verify(reference, transaction));
+            }
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    void shortCircuitKeepsResults() {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            transactions.add(randomTransaction());
+        }
+
+        TransactionValidator validator = createValidator(true);
+        List<String> actual = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            actual.add(verify(validator, transaction));
+        }
+        // Stolen cards are prohibited right away, their correlation history is never needed
+        for (int i = 0; i < CARDS; i += 10) {
+            assertThat(loadedCards).doesNotContain(CardValidator.toKey(cardNumbers.get(i)));
+        }
+
+        TransactionValidator reference = createValidator(false);
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String expected = verify(reference, transactions.get(i));
+            if (!expected.startsWith("PROHIBITED")) {
+                assertThat(actual.get(i)).as("transaction %d", i).isEqualTo(expected);
+                continue;
+            }
+
+            // A prohibited transaction keeps its result, but may lack the correlation reasons of an uncached window
+            assertThat(actual.get(i)).as("transaction %d", i).startsWith("PROHIBITED");
+            List<String> reasons = reasons(actual.get(i));
+            List<String> expectedReasons = reasons(expected);
+            assertThat(expectedReasons).as("transaction %d", i).containsAll(reasons);
+            expectedReasons.removeAll(reasons);
+            assertThat(expectedReasons).as("transaction %d", i)
+                    .allMatch(reason -> reason.endsWith("-correlation"));
+        }
+    }
+
+    private static List<String> reasons(String verdict) {
+        return new ArrayList<>(List.of(verdict.substring(verdict.indexOf(' ') + 1).split(", ")));
+    }
+
+    private String verify(TransactionValidator validator, Transaction template) {
+        Transaction transaction = copy(template);
+        validator.verifyTransaction(transaction);
+        return transaction.getResult() + " " + transaction.getInfo();
+    }
+
+    private TransactionValidator createValidator(boolean shortCircuit) {
+        CardRepository cardRepository = mock(CardRepository.class);
+        when(cardRepository.findByNumberKey(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(cards.get(invocation.<Long>getArgument(0))));
+
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.findAllByDateBetweenAndNumberKey(any(), any(), anyLong()))
+                .thenAnswer(invocation -> {
+                    LocalDateTime start = invocation.getArgument(0);
+                    LocalDateTime end = invocation.getArgument(1);
+                    long numberKey = invocation.getArgument(2);
+                    loadedCards.add(numberKey);
+                    return history.stream()
+                            .filter(transaction -> transaction.getNumberKey() == numberKey)
+                            .filter(transaction -> !transaction.getDate().isBefore(start))
+                            .filter(transaction -> !transaction.getDate().isAfter(end))
+                            .collect(Collectors.toList());
+                });
+
+        when(transactionRepository.findAllByNumberKeyAndDateGreaterThanEqual(anyLong(), any()))
+                .thenAnswer(invocation -> {
+                    long numberKey = invocation.getArgument(0);
+                    LocalDateTime start = invocation.getArgument(1);
+                    loadedCards.add(numberKey);
+                    return history.stream()
+                            .filter(transaction -> transaction.getNumberKey() == numberKey)
+                            .filter(transaction -> !transaction.getDate().isBefore(start))
+                            .collect(Collectors.toList());
+                });
+
+        StolenCardIndex stolenCardIndex = new StolenCardIndex();
+        for (int i = 0; i < CARDS; i += 10) {
+            stolenCardIndex.add(CardValidator.toKey(cardNumbers.get(i)));
+        }
+
+        SuspiciousIPIndex suspiciousIPIndex = new SuspiciousIPIndex();
+        suspiciousIPIndex.add("10.0.0.1");
+        suspiciousIPIndex.add("10.0.1.0/24");
+
+        CardWindowStore cardWindowStore = new CardWindowStore();
+        ReflectionTestUtils.setField(cardWindowStore, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(cardWindowStore, "transactionWriter", new TransactionWriter());
+        ReflectionTestUtils.setField(cardWindowStore, "maxCards", 100_000);
+
+        CardStateCache cardStateCache = new CardStateCache();
+        ReflectionTestUtils.setField(cardStateCache, "cardRepository", cardRepository);
+        ReflectionTestUtils.setField(cardStateCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cardStateCache, "maxSize", 16);
+        ReflectionTestUtils.setField(cardStateCache, "ttlSeconds", 60L);
+        cardStateCache.init();
+
+        TransactionValidator validator = new TransactionValidator();
+        ReflectionTestUtils.setField(validator, "cardStateCache", cardStateCache);
+        ReflectionTestUtils.setField(validator, "cardWindowStore", cardWindowStore);
+        ReflectionTestUtils.setField(validator, "stolenCardIndex", stolenCardIndex);
+        ReflectionTestUtils.setField(validator, "suspiciousIPIndex", suspiciousIPIndex);
+        ReflectionTestUtils.setField(validator, "velocityStore", new VelocityStore(16));
+        ReflectionTestUtils.setField(validator, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(validator, "shortCircuit", shortCircuit);
+        validator.init();
+        return validator;
+    }
+
+    private Transaction randomTransaction() {
+        Transaction transaction = new Transaction();
+        transaction.setNumber(cardNumbers.get(random.nextInt(CARDS)));
+        transaction.setAmount(1L + random.nextInt(3000));
+        transaction.setIp("10.0." + random.nextInt(2) + "." + (1 + random.nextInt(6)));
+        transaction.setRegion(Region.values()[random.nextInt(4)]);
+        transaction.setDate(START.plusSeconds(random.nextInt(24 * 3600)));
+        return transaction;
+    }
+
+    private static Transaction copy(Transaction template) {
+        Transaction transaction = new Transaction();
+        transaction.setNumber(template.getNumber());
+        transaction.setAmount(template.getAmount());
+        transaction.setIp(template.getIp());
+        transaction.setRegion(template.getRegion());
+        transaction.setDate(template.getDate());
+        return transaction;
+    }
+
+    // Appends the Luhn check digit, so the generated card numbers are valid
+    private static String withCheckDigit(String prefix) {
+        for (int digit = 0; digit <= 9; digit++) {
+            if (!CardValidator.isNonValid(prefix + digit)) return prefix + digit;
+        }
+        throw new AssertionError();
+    }
+}